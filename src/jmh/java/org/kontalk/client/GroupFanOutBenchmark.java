@@ -0,0 +1,95 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.kontalk.client.OpenPGPExtension.SignCryptElement;
+import org.kontalk.util.BenchmarkData;
+
+
+/**
+ * Preparing a group message for every member: one serialization per
+ * member against {@link GroupFanOut}.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupFanOutBenchmark {
+
+    @Param({ "16", "256" })
+    public int members;
+
+    private Jid[] mMembers;
+    private SignCryptElement mContent;
+
+    @Setup
+    public void setup() throws Exception {
+        mMembers = new Jid[members];
+        List<String> jids = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            mMembers[i] = JidCreate.from("member" + i + "@prime.kontalk.net");
+            jids.add(mMembers[i].toString());
+        }
+        mContent = new SignCryptElement(jids, new Date(), 32, Arrays.<ExtensionElement>asList(
+            new Message.Body(null, BenchmarkData.randomBase64(Integer.parseInt(BenchmarkData.SIZE_1K)))));
+    }
+
+    @Benchmark
+    public void toXMLPerMember(Blackhole bh) throws Exception {
+        for (Jid member : mMembers) {
+            bh.consume(member);
+            bh.consume(mContent.toXML(null).toString().getBytes("UTF-8"));
+        }
+    }
+
+    @Benchmark
+    public void fanOut(Blackhole bh) throws Exception {
+        GroupFanOut fanOut = new GroupFanOut(mMembers, mContent);
+        for (GroupFanOut.Envelope envelope : fanOut.getEnvelopes()) {
+            bh.consume(envelope.getRecipient());
+            bh.consume(envelope.getContent());
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smackx.commands.AdHocCommand;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.kontalk.util.BenchmarkData;
+
+
+/**
+ * Parse and serialize benchmarks for the extensions carrying lists of JIDs
+ * (roster matches, block lists, group members, server lists).
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListProvidersBenchmark {
+
+    /** Number of items in the list. */
+    @Param({ "10", "100", "1000" })
+    public int items;
+
+    private String[] mJids;
+    private Jid[] mMembers;
+
+    private String mRosterXml;
+    private String mBlocklistXml;
+    private String mGroupXml;
+    private String mServerlistXml;
+
+    private BlockingCommand mBlocklist;
+    private ServerlistCommand.ServerlistCommandData mServerlist;
+
+    @Setup
+    public void setup() throws Exception {
+        mJids = new String[items];
+        mMembers = new Jid[items];
+        StringBuilder roster = new StringBuilder();
+        StringBuilder blocklist = new StringBuilder();
+        StringBuilder members = new StringBuilder();
+        StringBuilder servers = new StringBuilder();
+        for (int i = 0; i < items; i++) {
+            // hashed phone numbers, as sent by the clients
+            String local = String.format("%040x", i * 2654435761L);
+            mJids[i] = local + "@prime.kontalk.net";
+            mMembers[i] = JidCreate.from(mJids[i]);
+            roster.append("<item jid='").append(mJids[i]).append("'/>");
+            blocklist.append("<item jid='").append(mJids[i]).append("'/>");
+            members.append("<member jid='").append(mJids[i]).append("'/>");
+            servers.append("<item node='node").append(i).append(".kontalk.net'/>");
+        }
+
+        mRosterXml = "<query xmlns='" + RosterMatch.NAMESPACE + "'>" + roster + "</query>";
+        mBlocklistXml = "<blocklist xmlns='" + BlockingCommand.NAMESPACE + "'>" + blocklist + "</blocklist>";
+        mGroupXml = "<group xmlns='" + GroupExtension.NAMESPACE + "' id='grp1' owner='" + mJids[0] +
+            "' type='create'><subject>Benchmark</subject>" + members + "</group>";
+        mServerlistXml = "<command xmlns='" + ServerlistCommand.NAMESPACE +
+            "' node='serverlist' status='completed'><serverlist xmlns='" +
+            ServerlistCommand.ServerlistCommandData.NAMESPACE + "'>" + servers + "</serverlist></command>";
+
+        mBlocklist = new BlockingCommand.Provider().parse(BenchmarkData.parser(mBlocklistXml));
+        mServerlist = new ServerlistCommand.ResultProvider().parse(BenchmarkData.parser(mServerlistXml));
+        mServerlist.setAction(AdHocCommand.Action.execute);
+    }
+
+    @Benchmark
+    public RosterMatch parseRosterMatch() throws Exception {
+        return new RosterMatch.Provider().parse(BenchmarkData.parser(mRosterXml));
+    }
+
+    @Benchmark
+    public String toXMLRosterMatch() {
+        RosterMatch iq = new RosterMatch();
+        for (String jid : mJids)
+            iq.addItem(jid);
+        return iq.toXML(null).toString();
+    }
+
+    @Benchmark
+    public BlockingCommand parseBlockingCommand() throws Exception {
+        return new BlockingCommand.Provider().parse(BenchmarkData.parser(mBlocklistXml));
+    }
+
+    @Benchmark
+    public String toXMLBlockingCommand() {
+        return mBlocklist.toXML(null).toString();
+    }
+
+    @Benchmark
+    public GroupExtension parseGroupExtension() throws Exception {
+        return new GroupExtension.Provider().parse(BenchmarkData.parser(mGroupXml));
+    }
+
+    @Benchmark
+    public String toXMLGroupExtension() {
+        List<GroupExtension.Member> members = new ArrayList<>(mMembers.length);
+        for (Jid jid : mMembers)
+            members.add(new GroupExtension.Member(jid));
+        return new GroupExtension("grp1", mMembers[0], GroupExtension.Type.CREATE, "Benchmark", members)
+            .toXML(null).toString();
+    }
+
+    @Benchmark
+    public ServerlistCommand.ServerlistCommandData parseServerlist() throws Exception {
+        return new ServerlistCommand.ResultProvider().parse(BenchmarkData.parser(mServerlistXml));
+    }
+
+    @Benchmark
+    public String toXMLServerlist() {
+        // items are not serialized yet, this measures the command envelope only
+        return mServerlist.toXML(null).toString();
+    }
+
+}
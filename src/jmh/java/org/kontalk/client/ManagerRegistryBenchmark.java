@@ -0,0 +1,98 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Looks up the managers of many connections from several threads at once,
+ * comparing {@link KontalkGroupManager#getInstanceFor} with the synchronized
+ * {@link WeakHashMap} it used before.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ManagerRegistryBenchmark {
+
+    private static final int CONNECTIONS = 256;
+
+    @State(Scope.Benchmark)
+    public static class Connections {
+        final XMPPConnection[] connections = new XMPPConnection[CONNECTIONS];
+        final Map<XMPPConnection, KontalkGroupManager> instances = new WeakHashMap<>();
+
+        @Setup
+        public void setup() throws Exception {
+            XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("localhost")
+                .build();
+            for (int i = 0; i < connections.length; i++) {
+                // never connected, only used as keys
+                connections[i] = new XMPPTCPConnection(config);
+                instances.put(connections[i], KontalkGroupManager.getInstanceFor(connections[i]));
+            }
+        }
+
+        synchronized KontalkGroupManager getInstanceFor(XMPPConnection connection) {
+            return instances.get(connection);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            return next++ & (CONNECTIONS - 1);
+        }
+    }
+
+    @Benchmark
+    public KontalkGroupManager synchronizedMap(Connections state, Cursor cursor) {
+        return state.getInstanceFor(state.connections[cursor.next()]);
+    }
+
+    @Benchmark
+    public KontalkGroupManager registry(Connections state, Cursor cursor) {
+        return KontalkGroupManager.getInstanceFor(state.connections[cursor.next()]);
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.kontalk.util.BenchmarkData;
+
+
+/**
+ * Parse and serialize benchmarks for the extensions carrying Base64 payloads.
+ * Serialization starts from raw bytes whenever the public API allows it, so
+ * that encoding is measured too.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadProvidersBenchmark {
+
+    /** Size of the raw payload in bytes. */
+    @Param({ BenchmarkData.SIZE_1K, BenchmarkData.SIZE_64K, BenchmarkData.SIZE_1M })
+    public int size;
+
+    private byte[] mData;
+    private String mEncoded;
+
+    private String mE2EXml;
+    private String mEncryptedXml;
+    private String mSignedXml;
+    private String mOpenPGPXml;
+    private String mAvatarXml;
+    private String mBobXml;
+    private String mKeyPresenceXml;
+    private String mAccountXml;
+    private String mPublicKeyXml;
+    private String mVCardXml;
+
+    private PublicKeyPublish mPublicKey;
+
+    @Setup
+    public void setup() throws Exception {
+        mData = BenchmarkData.randomBytes(size);
+        mEncoded = BenchmarkData.randomBase64(size);
+
+        mE2EXml = element(E2EEncryption.ELEMENT_NAME, E2EEncryption.NAMESPACE, mEncoded);
+        mEncryptedXml = element(OpenPGPEncryptedMessage.ELEMENT_NAME, OpenPGPEncryptedMessage.NAMESPACE, mEncoded);
+        mSignedXml = element(OpenPGPSignedMessage.ELEMENT_NAME, OpenPGPSignedMessage.NAMESPACE, mEncoded);
+        mOpenPGPXml = element(OpenPGPExtension.ELEMENT_NAME, OpenPGPExtension.NAMESPACE, mEncoded);
+        mAvatarXml = element(AvatarDataExtension.ELEMENT_NAME, AvatarDataExtension.NAMESPACE, mEncoded);
+        mBobXml = "<data xmlns='" + BitsOfBinary.NAMESPACE + "' type='image/png'>" + mEncoded + "</data>";
+        mKeyPresenceXml = element(PublicKeyPresence.ELEMENT_NAME, PublicKeyPresence.NAMESPACE,
+            "<key>" + mEncoded + "</key><print>37D0E678CDD19FB9B182B3804C9539B401F8229C</print>");
+        mAccountXml = element(Account.ELEMENT_NAME, Account.NAMESPACE,
+            "<privatekey><private>" + mEncoded + "</private><public>" + mEncoded + "</public></privatekey>");
+        mPublicKeyXml = element(PublicKeyPublish.ELEMENT_NAME, PublicKeyPublish.NAMESPACE, mEncoded);
+        mVCardXml = element(VCard4.ELEMENT_NAME, VCard4.NAMESPACE,
+            "<key><uri>data:application/pgp-keys;base64," + mEncoded + "</uri></key>");
+
+        mPublicKey = new PublicKeyPublish.Provider().parse(BenchmarkData.parser(mPublicKeyXml));
+    }
+
+    private static String element(String name, String namespace, String content) {
+        return "<" + name + " xmlns='" + namespace + "'>" + content + "</" + name + ">";
+    }
+
+    @Benchmark
+    public E2EEncryption parseE2EEncryption() throws Exception {
+        return new E2EEncryption.Provider().parse(BenchmarkData.parser(mE2EXml));
+    }
+
+    @Benchmark
+    public String toXMLE2EEncryption() {
+        return new E2EEncryption(mData).toXML(null).toString();
+    }
+
+    @Benchmark
+    public OpenPGPEncryptedMessage parseOpenPGPEncryptedMessage() throws Exception {
+        return new OpenPGPEncryptedMessage.Provider().parse(BenchmarkData.parser(mEncryptedXml));
+    }
+
+    @Benchmark
+    public String toXMLOpenPGPEncryptedMessage() {
+        return new OpenPGPEncryptedMessage(mData).toXML(null).toString();
+    }
+
+    @Benchmark
+    public OpenPGPSignedMessage parseOpenPGPSignedMessage() throws Exception {
+        return new OpenPGPSignedMessage.Provider().parse(BenchmarkData.parser(mSignedXml));
+    }
+
+    @Benchmark
+    public String toXMLOpenPGPSignedMessage() {
+        return new OpenPGPSignedMessage(mData).toXML(null).toString();
+    }
+
+    @Benchmark
+    public OpenPGPExtension parseOpenPGPExtension() throws Exception {
+        return new OpenPGPExtension.Provider().parse(BenchmarkData.parser(mOpenPGPXml));
+    }
+
+    @Benchmark
+    public String toXMLOpenPGPExtension() {
+        return new OpenPGPExtension(mEncoded).toXML(null).toString();
+    }
+
+    @Benchmark
+    public AvatarDataExtension parseAvatarData() throws Exception {
+        return new AvatarDataExtension.Provider().parse(BenchmarkData.parser(mAvatarXml));
+    }
+
+    @Benchmark
+    public String toXMLAvatarData() {
+        return new AvatarDataExtension(mData).toXML(null).toString();
+    }
+
+    @Benchmark
+    public BitsOfBinary parseBitsOfBinary() throws Exception {
+        return new BitsOfBinary.Provider().parse(BenchmarkData.parser(mBobXml));
+    }
+
+    @Benchmark
+    public String toXMLBitsOfBinary() {
+        return new BitsOfBinary("image/png", mEncoded).toXML(null).toString();
+    }
+
+    @Benchmark
+    public PublicKeyPresence parsePublicKeyPresence() throws Exception {
+        return new PublicKeyPresence.Provider().parse(BenchmarkData.parser(mKeyPresenceXml));
+    }
+
+    @Benchmark
+    public String toXMLPublicKeyPresence() {
+        return new PublicKeyPresence(mData, "37D0E678CDD19FB9B182B3804C9539B401F8229C").toXML(null).toString();
+    }
+
+    @Benchmark
+    public Account parseAccount() throws Exception {
+        return new Account.Provider().parse(BenchmarkData.parser(mAccountXml));
+    }
+
+    @Benchmark
+    public String toXMLAccount() {
+        // only the private key token is ever sent
+        Account account = new Account();
+        account.setPrivateKeyToken(mEncoded);
+        return account.toXML(null).toString();
+    }
+
+    @Benchmark
+    public PublicKeyPublish parsePublicKeyPublish() throws Exception {
+        return new PublicKeyPublish.Provider().parse(BenchmarkData.parser(mPublicKeyXml));
+    }
+
+    @Benchmark
+    public String toXMLPublicKeyPublish() {
+        return mPublicKey.toXML(null).toString();
+    }
+
+    @Benchmark
+    public VCard4 parseVCard4() throws Exception {
+        return new VCard4.Provider().parse(BenchmarkData.parser(mVCardXml));
+    }
+
+    @Benchmark
+    public String toXMLVCard4() {
+        VCard4 vcard = new VCard4();
+        vcard.setPGPKey(mData);
+        return vcard.toXML(null).toString();
+    }
+
+}
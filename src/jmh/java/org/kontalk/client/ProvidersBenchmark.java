@@ -0,0 +1,143 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.kontalk.util.BenchmarkData;
+
+
+/**
+ * Parse and serialize benchmarks for the small, fixed-size extensions.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProvidersBenchmark {
+
+    private static final String URL = "https://prime.kontalk.net/media/0123456789abcdef0123456789abcdef";
+
+    private static final String METADATA_XML =
+        "<metadata xmlns='" + AvatarMetadataExtension.NAMESPACE + "'>" +
+        "<info id='111f4b3c50d7b0df729d299bc6f8e9ef9066971f' bytes='12345' type='image/png'" +
+        " width='64' height='64'/></metadata>";
+    private static final String OOB_XML =
+        "<x xmlns='" + OutOfBandData.NAMESPACE + "'>" +
+        "<url type='image/png' length='2034782' encrypted='true'>" + URL + "</url></x>";
+    private static final String SIGNATURE_XML =
+        "<x xmlns='" + PresenceSignature.NAMESPACE + "'>" +
+        "iQEcBAABCAAGBQJUmNb7AAoJEEyVObQB+CKcdMgH/1aBn2lDEbuL6WkbPJ6xEBUxz5bBAb7O" +
+        "</x>";
+    private static final String LOCATION_XML =
+        "<geoloc xmlns='" + UserLocation.NAMESPACE + "'>" +
+        "<lat>45.44085</lat><lon>12.31552</lon><text>Meet me here</text>" +
+        "<street>Piazza San Marco</street></geoloc>";
+    private static final String SLOT_XML =
+        "<slot xmlns='" + HTTPFileUpload.NAMESPACE + "'>" +
+        "<put>" + URL + "?token=abc</put><get>" + URL + "</get></slot>";
+    private static final String UPLOAD_INFO_XML =
+        "<upload xmlns='" + UploadInfo.NAMESPACE + "' node='kontalkbox'>" +
+        "<media type='image/png'/><uri>" + URL + "</uri></upload>";
+
+    private PresenceSignature mSignature;
+
+    @Setup
+    public void setup() throws Exception {
+        mSignature = new PresenceSignature.Provider().parse(BenchmarkData.parser(SIGNATURE_XML));
+    }
+
+    @Benchmark
+    public AvatarMetadataExtension parseAvatarMetadata() throws Exception {
+        return new AvatarMetadataExtension.Provider().parse(BenchmarkData.parser(METADATA_XML));
+    }
+
+    @Benchmark
+    public String toXMLAvatarMetadata() {
+        return new AvatarMetadataExtension(Collections.singletonList(
+            new AvatarMetadataExtension.Info("111f4b3c50d7b0df729d299bc6f8e9ef9066971f",
+                12345, "image/png", 64, 64))).toXML(null).toString();
+    }
+
+    @Benchmark
+    public OutOfBandData parseOutOfBandData() throws Exception {
+        return new OutOfBandData.Provider().parse(BenchmarkData.parser(OOB_XML));
+    }
+
+    @Benchmark
+    public String toXMLOutOfBandData() {
+        return new OutOfBandData(URL, "image/png", 2034782, true).toXML(null).toString();
+    }
+
+    @Benchmark
+    public PresenceSignature parsePresenceSignature() throws Exception {
+        return new PresenceSignature.Provider().parse(BenchmarkData.parser(SIGNATURE_XML));
+    }
+
+    @Benchmark
+    public String toXMLPresenceSignature() {
+        return mSignature.toXML(null).toString();
+    }
+
+    @Benchmark
+    public UserLocation parseUserLocation() throws Exception {
+        return new UserLocation.Provider().parse(BenchmarkData.parser(LOCATION_XML));
+    }
+
+    @Benchmark
+    public String toXMLUserLocation() {
+        return new UserLocation(45.44085, 12.31552, "Meet me here", "Piazza San Marco")
+            .toXML(null).toString();
+    }
+
+    @Benchmark
+    public HTTPFileUpload.Slot parseSlot() throws Exception {
+        return new HTTPFileUpload.Slot.Provider().parse(BenchmarkData.parser(SLOT_XML));
+    }
+
+    @Benchmark
+    public String toXMLSlot() {
+        return new HTTPFileUpload.Slot(URL + "?token=abc", URL).toXML(null).toString();
+    }
+
+    @Benchmark
+    public UploadInfo parseUploadInfo() throws Exception {
+        return new UploadInfo.Provider().parse(BenchmarkData.parser(UPLOAD_INFO_XML));
+    }
+
+    @Benchmark
+    public String toXMLUploadInfo() {
+        return new UploadInfo("kontalkbox", "image/png").toXML(null).toString();
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.kontalk.client.OpenPGPExtension.SignCryptElement;
+import org.kontalk.util.BenchmarkData;
+
+
+/**
+ * Parse and serialize benchmarks for {@link SignCryptElement}, carrying a
+ * message body and an attachment reference as payload.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignCryptElementBenchmark {
+
+    private static final List<String> JIDS = Arrays.asList(
+        "alice@prime.kontalk.net", "bob@prime.kontalk.net");
+
+    /** Size of the raw body in bytes. */
+    @Param({ BenchmarkData.SIZE_1K, BenchmarkData.SIZE_64K, BenchmarkData.SIZE_1M })
+    public int size;
+
+    private SignCryptElement mElement;
+    private String mXml;
+    private final CountingOutputStream mSink = new CountingOutputStream();
+
+    @Setup
+    public void setup() {
+        List<ExtensionElement> payload = Arrays.<ExtensionElement>asList(
+            new Message.Body(null, BenchmarkData.randomBase64(size)),
+            new OutOfBandData("https://prime.kontalk.net/media/0123456789abcdef", "image/png", size, true));
+        mElement = new SignCryptElement(JIDS, new Date(), 0, payload);
+        mXml = mElement.toXML(null).toString();
+    }
+
+    @Benchmark
+    public SignCryptElement parse() throws Exception {
+        return SignCryptElement.parse(mXml);
+    }
+
+    /** Addressing check only, payload is never accessed. */
+    @Benchmark
+    public SignCryptElement parseLazy() throws Exception {
+        SignCryptElement element = SignCryptElement.parse(mXml, true);
+        element.getJIDs();
+        element.getTimeStamp();
+        return element;
+    }
+
+    @Benchmark
+    public String toXML() {
+        return mElement.toXML(null).toString();
+    }
+
+    /** What we used to feed the encryptor with. */
+    @Benchmark
+    public long toXMLBytes() throws Exception {
+        byte[] data = mElement.toXML(null).toString().getBytes("UTF-8");
+        mSink.write(data);
+        return mSink.mCount;
+    }
+
+    @Benchmark
+    public long writeTo() throws Exception {
+        mElement.writeTo(mSink);
+        return mSink.mCount;
+    }
+
+    /** Stands for the encryption stream. */
+    private static final class CountingOutputStream extends OutputStream {
+        long mCount;
+
+        @Override
+        public void write(int b) throws IOException {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mCount += len;
+        }
+    }
+
+}
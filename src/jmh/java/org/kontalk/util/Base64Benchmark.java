@@ -0,0 +1,123 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares the {@link Base64} codec with the Smack encoder previously used
+ * by the extensions, with and without intermediate Strings.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+
+    /** Size of the raw data in bytes. */
+    @Param({ BenchmarkData.SIZE_1K, BenchmarkData.SIZE_64K, BenchmarkData.SIZE_1M })
+    public int size;
+
+    private final Java7Base64Encoder mSmack = Java7Base64Encoder.getInstance();
+    private final Base64Codec mCodec = Base64.getCodec();
+
+    private byte[] mData;
+    private String mEncoded;
+
+    private char[] mChars;
+    private StringBuilder mBuilder;
+    private byte[] mBytes;
+    private ByteBuffer mDirect;
+
+    @Setup
+    public void setup() {
+        mData = BenchmarkData.randomBytes(size);
+        mEncoded = BenchmarkData.randomBase64(size);
+
+        mChars = new char[mCodec.encodedLength(size)];
+        mBuilder = new StringBuilder(mChars.length);
+        mBytes = new byte[size];
+        mDirect = ByteBuffer.allocateDirect(size);
+    }
+
+    @Benchmark
+    public String encodeSmack() {
+        return mSmack.encodeToString(mData, 0, mData.length);
+    }
+
+    @Benchmark
+    public String encodeCodec() {
+        return Base64.encodeToString(mData);
+    }
+
+    @Benchmark
+    public char[] encodeCodecChars() {
+        mCodec.encode(mData, 0, mData.length, mChars, 0);
+        return mChars;
+    }
+
+    @Benchmark
+    public StringBuilder encodeCodecAppendable() throws Exception {
+        mBuilder.setLength(0);
+        mCodec.encode(mData, 0, mData.length, mBuilder);
+        return mBuilder;
+    }
+
+    @Benchmark
+    public byte[] decodeSmack() {
+        return mSmack.decode(mEncoded);
+    }
+
+    @Benchmark
+    public byte[] decodeCodec() {
+        return Base64.decode(mEncoded);
+    }
+
+    @Benchmark
+    public byte[] decodeCodecInto() {
+        mCodec.decode(mEncoded, 0, mEncoded.length(), mBytes, 0);
+        return mBytes;
+    }
+
+    @Benchmark
+    public ByteBuffer decodeCodecDirect() {
+        mDirect.clear();
+        mCodec.decode(mEncoded, 0, mEncoded.length(), mDirect);
+        return mDirect;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.util.Random;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+import org.xmlpull.v1.XmlPullParser;
+
+
+/**
+ * Sample data shared by the benchmarks.
+ * Data is generated from a fixed seed so that runs can be compared.
+ * @author Daniele Ricci
+ */
+public final class BenchmarkData {
+
+    /** Payload sizes (in bytes, before Base64 encoding) used by the benchmarks. */
+    public static final String SIZE_1K = "1024";
+    public static final String SIZE_64K = "65536";
+    public static final String SIZE_1M = "1048576";
+
+    private static final long SEED = 0x4b6f6e74616c6bL;
+
+    static {
+        Base64.setEncoder(Java7Base64Encoder.getInstance());
+    }
+
+    private BenchmarkData() {
+        throw new AssertionError();
+    }
+
+    /** Returns the given amount of pseudo-random bytes. */
+    public static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(SEED + size).nextBytes(data);
+        return data;
+    }
+
+    /** Returns the Base64 encoding of the given amount of pseudo-random bytes. */
+    public static String randomBase64(int size) {
+        return Base64.encodeToString(randomBytes(size));
+    }
+
+    /** Returns a parser positioned on the root element of the given XML. */
+    public static XmlPullParser parser(String xml) throws Exception {
+        return PacketParserUtils.getParserFor(xml);
+    }
+
+}
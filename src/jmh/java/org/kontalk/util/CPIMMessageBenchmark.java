@@ -0,0 +1,110 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks for {@link CPIMMessage} encoding and parsing, and for parsing
+ * the wrapped message stanza with {@link XMPPParserUtils#parseMessageStanza}.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CPIMMessageBenchmark {
+
+    private static final String FROM = "Alice <alice@prime.kontalk.net>";
+    private static final String[] TO = { "Bob <bob@prime.kontalk.net>" };
+
+    /** Size of the raw body in bytes. */
+    @Param({ BenchmarkData.SIZE_1K, BenchmarkData.SIZE_64K, BenchmarkData.SIZE_1M })
+    public int size;
+
+    private String mBody;
+    private CPIMMessage mMessage;
+    private String mText;
+    private byte[] mData;
+    private String mStanza;
+    private byte[] mStanzaData;
+
+    @Setup
+    public void setup() throws Exception {
+        mBody = BenchmarkData.randomBase64(size);
+        mMessage = new CPIMMessage(FROM, TO, new Date(), mBody);
+        mText = mMessage.toString();
+        mData = mMessage.toByteArray();
+
+        Message message = new Message("bob@prime.kontalk.net", mBody);
+        message.setFrom(JidCreate.from("alice@prime.kontalk.net/mobile"));
+        message.setStanzaId("benchmark");
+        mStanza = "<xmpp>" + message.toXML(null) + "</xmpp>";
+        mStanzaData = mStanza.getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public CPIMMessage parseString() throws Exception {
+        return CPIMMessage.parse(mText);
+    }
+
+    @Benchmark
+    public CPIMMessage parseBytes() throws Exception {
+        return CPIMMessage.parse(mData);
+    }
+
+    @Benchmark
+    public String toStringMessage() {
+        return mMessage.toString();
+    }
+
+    @Benchmark
+    public byte[] toByteArray() throws Exception {
+        return new CPIMMessage(FROM, TO, new Date(), mBody).toByteArray();
+    }
+
+    @Benchmark
+    public Message parseMessageStanza() throws Exception {
+        return XMPPParserUtils.parseMessageStanza(mStanza);
+    }
+
+    @Benchmark
+    public Message parseMessageStanzaBytes() throws Exception {
+        return XMPPParserUtils.parseMessageStanza(mStanzaData);
+    }
+
+}
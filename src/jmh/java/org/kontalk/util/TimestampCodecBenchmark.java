@@ -0,0 +1,78 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.jxmpp.util.XmppDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares {@link TimestampCodec} with {@link XmppDateTime} when several
+ * threads format and parse timestamps at the same time.
+ * @author Daniele Ricci
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Thread)
+public class TimestampCodecBenchmark {
+
+    private static final String STAMP = "2014-08-24T20:35:05.123+00:00";
+
+    /** Advances a few milliseconds per call, like timestamps of a busy sender. */
+    private long mMillis = 1408912505123L;
+
+    @Benchmark
+    public String formatCodec() {
+        mMillis += 7;
+        return TimestampCodec.format(mMillis);
+    }
+
+    @Benchmark
+    public String formatXmppDateTime() {
+        mMillis += 7;
+        return XmppDateTime.formatXEP0082Date(new Date(mMillis));
+    }
+
+    @Benchmark
+    public long parseCodec() throws Exception {
+        return TimestampCodec.parse(STAMP);
+    }
+
+    @Benchmark
+    public Date parseXmppDateTime() throws Exception {
+        return XmppDateTime.parseXEP0082Date(STAMP);
+    }
+
+}
@@ -24,7 +24,7 @@ import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.Base64;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -46,8 +46,18 @@ public class Account implements ExtensionElement {
 
     public Account(String privateKeyData, String publicKeyData) {
         this();
-        mPrivateKeyData = Base64.decode(privateKeyData);
-        mPublicKeyData = Base64.decode(publicKeyData);
+        mPrivateKeyData = decode(privateKeyData);
+        mPublicKeyData = decode(publicKeyData);
+    }
+
+    /** Returns null for malformed data. */
+    private static byte[] decode(String data) {
+        try {
+            return Base64.decode(data);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     @Override
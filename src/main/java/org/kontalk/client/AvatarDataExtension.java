@@ -23,7 +23,7 @@ import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.Base64;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -48,8 +48,14 @@ public class AvatarDataExtension implements ExtensionElement {
         mData = data;
     }
 
+    /** Returns the avatar data, or null if it is not valid Base64. */
     public byte[] getData() {
-        return Base64.decode(mData);
+        try {
+            return Base64.decode(mData);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     @Override
@@ -18,16 +18,23 @@
 
 package org.kontalk.client;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.Base64;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -40,20 +47,63 @@ public class BitsOfBinary implements ExtensionElement {
     public static final String ELEMENT_NAME = "data";
     public static final String NAMESPACE = "urn:xmpp:bob";
 
+    /** Domain part of content ids. */
+    public static final String CID_DOMAIN = "bob.xmpp.org";
+    private static final String CID_ALGORITHM = "sha1";
+
+    /**
+     * Size of the file chunks encoded at once in streaming mode. It must be a
+     * multiple of 3 so that encoded chunks can be concatenated.
+     */
+    private static final int CHUNK_SIZE = 3 * 16 * 1024;
+
     private final String mMime;
     private final File mFile;
+    private final boolean mStreaming;
 
     /** Cache of Base64-encoded data. */
     private String mCache;
 
+    /** Content id to be included in the XML representation. */
+    private String mCid;
+    /** Content id computed from the contents. */
+    private String mComputedCid;
+
     public BitsOfBinary(String mime, String contents) {
+        this(mime, contents, null);
+    }
+
+    /**
+     * Creates a new element with the given contents and content id.
+     * @param contents Base64-encoded contents, null for a reference to
+     *  data identified by cid only
+     * @param cid content id, null to leave it out
+     */
+    public BitsOfBinary(String mime, String contents, String cid) {
         this(mime, (File) null);
         mCache = contents;
+        mCid = cid;
     }
 
     public BitsOfBinary(String mime, File path) {
+        this(mime, path, false);
+    }
+
+    /**
+     * Creates a new element with the contents of the given file.
+     * @param streaming if true, file contents are never cached: they are read
+     *  and encoded in bounded chunks by {@link #writeTo}, or each time the
+     *  result of {@link #toXML} is serialized
+     */
+    public BitsOfBinary(String mime, File path, boolean streaming) {
         mMime = mime;
         mFile = path;
+        mStreaming = streaming && path != null;
+    }
+
+    /** Creates a reference to data identified by the given content id. */
+    public static BitsOfBinary reference(String cid) {
+        return new BitsOfBinary(null, null, cid);
     }
 
     @Override
@@ -71,13 +121,126 @@ public class BitsOfBinary implements ExtensionElement {
      * @return the Base64-decoded contents.
      */
     public byte[] getContents() {
+        if (mStreaming) {
+            try {
+                return readFile(mFile);
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+
         updateContents();
-        if (mCache != null)
-            return Base64.decode(mCache);
+        if (mCache != null) {
+            try {
+                return Base64.decode(mCache);
+            }
+            catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
 
         return null;
     }
 
+    /** Returns the Base64-encoded contents, or null if not available. */
+    String getEncodedContents() {
+        if (mStreaming) {
+            try {
+                return Base64.encodeToString(readFile(mFile));
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+
+        updateContents();
+        return mCache;
+    }
+
+    /**
+     * Returns the content id of this data. If none was given, it's computed
+     * from the contents (but not included in the XML representation, see
+     * {@link #withCid()}).
+     * @return the content id, or null if there are no contents to compute it from
+     */
+    public String getCid() {
+        if (mCid != null)
+            return mCid;
+
+        if (mComputedCid == null) {
+            try {
+                if (mStreaming) {
+                    mComputedCid = computeCid(mFile);
+                }
+                else {
+                    byte[] contents = getContents();
+                    if (contents != null)
+                        mComputedCid = computeCid(contents);
+                }
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+        return mComputedCid;
+    }
+
+    /** Returns the content id given on creation or parsed, if any. */
+    String getDeclaredCid() {
+        return mCid;
+    }
+
+    /** Includes the content id in the XML representation, computing it if needed. */
+    public BitsOfBinary withCid() {
+        mCid = getCid();
+        return this;
+    }
+
+    /** Returns true if this element carries no data, only a content id. */
+    public boolean isReference() {
+        return mCache == null && mFile == null && mCid != null;
+    }
+
+    /** Computes the content id of the given data, e.g. sha1+8f35fef1...@bob.xmpp.org */
+    public static String computeCid(byte[] data) {
+        MessageDigest digest = newDigest();
+        digest.update(data);
+        return formatCid(digest.digest());
+    }
+
+    private static String computeCid(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return formatCid(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String formatCid(byte[] hash) {
+        return CID_ALGORITHM + "+" + StringUtils.encodeHex(hash) + "@" + CID_DOMAIN;
+    }
+
+    /** Returns true if file contents are streamed instead of being cached. */
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
     /**
      * Returns the MIME type (if defined).
      * @return the MIME type (if any).
@@ -88,51 +251,169 @@ public class BitsOfBinary implements ExtensionElement {
 
     private void updateContents() {
         if (mCache == null && mFile != null) {
-            FileInputStream source = null;
             try {
-                source = new FileInputStream(mFile);
-                ByteArrayOutputStream bos = new ByteArrayOutputStream((int) mFile.length());
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = source.read(buffer)) != -1)
-                    bos.write(buffer, 0, len);
-                mCache = Base64.encodeToString(bos.toByteArray());
-                bos.close();
+                mCache = Base64.encodeToString(readFile(mFile));
             }
             catch (IOException e) {
                 // error! Invalidate cache
                 mCache = null;
             }
-            finally {
-                try {
-                    source.close();
-                }
-                catch (Exception ignored) {
-                }
-            }
         }
     }
 
     /**
      * Returns an XML representation of this object as per XEP-0231.
-     * @return the XML representation.
+     * In streaming mode, only the file size and readability are checked
+     * here: the contents are read and encoded one chunk at a time while the
+     * result is serialized. Should the file become unreadable or shrink in
+     * the meantime, the missing bytes are sent as zeros (serialization
+     * can't fail); use {@link #writeTo} to have read errors reported.
+     * @return the XML representation, or null if contents are not available
      */
     @Override
     public XmlStringBuilder toXML(String enclosingNamespace) {
-        updateContents();
-        if (mCache == null) return null;
-
         XmlStringBuilder xml = new XmlStringBuilder()
             .prelude(ELEMENT_NAME, NAMESPACE);
+        appendAttributes(xml);
+
+        if (isReference()) {
+            return xml.closeEmptyElement();
+        }
+
+        xml.rightAngleBracket();
+        if (!appendContents(xml)) return null;
+
+        xml.closeElement(ELEMENT_NAME);
+        return xml;
+    }
+
+    void appendAttributes(XmlStringBuilder xml) {
+        xml.optAttribute("cid", mCid);
 
         if (mMime != null) {
             xml.attribute("type", mMime);
         }
+    }
 
-        xml.rightAngleBracket()
-            .append(mCache)
-            .closeElement(ELEMENT_NAME);
-        return xml;
+    /**
+     * Appends the Base64-encoded contents, as lazily encoded chunks in
+     * streaming mode.
+     * @return false if contents are not available
+     */
+    private boolean appendContents(XmlStringBuilder xml) {
+        if (mStreaming) {
+            if (!mFile.isFile() || !mFile.canRead()) return false;
+
+            long length = mFile.length();
+            for (long position = 0; position < length; position += CHUNK_SIZE) {
+                xml.append(new EncodedChunk(mFile, position,
+                    (int) Math.min(CHUNK_SIZE, length - position)));
+            }
+        }
+        else {
+            updateContents();
+            if (mCache == null) return false;
+
+            xml.append(mCache);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the XML representation of this object to the given writer. In
+     * streaming mode, the file is read and encoded in bounded chunks, and
+     * read errors are thrown from here.
+     * @throws FileNotFoundException if contents are not available
+     */
+    public void writeTo(Writer out) throws IOException {
+        if (!mStreaming) {
+            XmlStringBuilder xml = toXML(null);
+            if (xml == null)
+                throw new FileNotFoundException("unable to read contents");
+            xml.write(out, null);
+            return;
+        }
+
+        try (FileInputStream in = new FileInputStream(mFile)) {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, length));
+
+            openElement().write(out, null);
+            for (long position = 0; position < length; position += CHUNK_SIZE) {
+                buffer.clear();
+                buffer.limit((int) Math.min(CHUNK_SIZE, length - position));
+                readFully(channel, buffer, position);
+                Base64.encode(buffer.array(), 0, buffer.limit(), out);
+            }
+            out.write("</" + ELEMENT_NAME + ">");
+        }
+    }
+
+    private XmlStringBuilder openElement() {
+        XmlStringBuilder xml = new XmlStringBuilder()
+            .prelude(ELEMENT_NAME, NAMESPACE);
+        appendAttributes(xml);
+        return xml.rightAngleBracket();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            readFully(channel, buffer, 0);
+            return buffer.array();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("file was truncated");
+        }
+    }
+
+    /**
+     * A chunk of file contents, read and encoded only when needed. All chunks
+     * but the last one have a size multiple of 3.
+     */
+    private static final class EncodedChunk implements CharSequence {
+        private final File mFile;
+        private final long mPosition;
+        private final int mSize;
+
+        EncodedChunk(File file, long position, int size) {
+            mFile = file;
+            mPosition = position;
+            mSize = size;
+        }
+
+        @Override
+        public int length() {
+            return (mSize + 2) / 3 * 4;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return toString().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            ByteBuffer buffer = ByteBuffer.allocate(mSize);
+            try (FileInputStream in = new FileInputStream(mFile)) {
+                readFully(in.getChannel(), buffer, mPosition);
+            }
+            catch (IOException e) {
+                // can't fail here, unread bytes are left as zeros
+            }
+            return Base64.encodeToString(buffer.array());
+        }
     }
 
     /** Provider class for parsing {@link BitsOfBinary}. */
@@ -140,10 +421,11 @@ public class BitsOfBinary implements ExtensionElement {
 
         @Override
         public BitsOfBinary parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException, IOException, SmackException {
-            String contents = null, mime;
+            String contents = null, mime, cid;
             boolean done = false;
 
             mime = parser.getAttributeValue(null, "type");
+            cid = parser.getAttributeValue(null, "cid");
 
             while (!done) {
                 int eventType = parser.next();
@@ -158,8 +440,8 @@ public class BitsOfBinary implements ExtensionElement {
                 }
             }
 
-            if (contents != null)
-                return new BitsOfBinary(mime, contents);
+            if (contents != null || cid != null)
+                return new BitsOfBinary(mime, contents, cid);
             else
                 return null;
         }
@@ -0,0 +1,137 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * <p>Least-recently-used cache of {@link BitsOfBinary} data, keyed by cid.</p>
+ * <p>
+ * The cache is bounded by the total size of the cached data (as Base64
+ * characters). Data is verified against its content id before being stored,
+ * so that a cid always maps to the data it was computed from. The cache is
+ * thread-safe.
+ * </p>
+ * @author Daniele Ricci
+ */
+public class BitsOfBinaryCache {
+
+    private final long mMaxSize;
+    private long mSize;
+
+    private final LinkedHashMap<String, CacheEntry> mEntries =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class CacheEntry {
+        final String mime;
+        final String contents;
+
+        CacheEntry(String mime, String contents) {
+            this.mime = mime;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * @param maxSize maximum total size of the cached data, in Base64 characters
+     */
+    public BitsOfBinaryCache(long maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("cache size must be positive");
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the data with the given content id.
+     * @return the cached data, or null if not in cache
+     */
+    public synchronized BitsOfBinary get(String cid) {
+        CacheEntry entry = mEntries.get(cid);
+        return entry != null ? new BitsOfBinary(entry.mime, entry.contents, cid) : null;
+    }
+
+    public synchronized boolean contains(String cid) {
+        return mEntries.containsKey(cid);
+    }
+
+    /**
+     * Stores the given data, evicting the least recently used entries if needed.
+     * Data carrying a content id that does not match its contents is refused.
+     * @return true if the data was stored
+     */
+    public boolean put(BitsOfBinary data) {
+        if (data.isReference())
+            return false;
+
+        byte[] contents = data.getContents();
+        if (contents == null)
+            return false;
+
+        // verify outside the lock, hashing can take a while
+        String cid = BitsOfBinary.computeCid(contents);
+        String declared = data.getDeclaredCid();
+        if (declared != null && !declared.equalsIgnoreCase(cid))
+            return false;
+
+        String encoded = data.getEncodedContents();
+        if (encoded == null || encoded.length() > mMaxSize)
+            return false;
+
+        synchronized (this) {
+            CacheEntry old = mEntries.put(cid, new CacheEntry(data.getType(), encoded));
+            if (old != null)
+                mSize -= old.contents.length();
+            mSize += encoded.length();
+            trim();
+        }
+        return true;
+    }
+
+    public synchronized void remove(String cid) {
+        CacheEntry entry = mEntries.remove(cid);
+        if (entry != null)
+            mSize -= entry.contents.length();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /** Returns the total size of the cached data, in Base64 characters. */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, CacheEntry>> iter = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iter.hasNext()) {
+            mSize -= iter.next().getValue().contents.length();
+            iter.remove();
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.provider.IQProvider;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+
+/**
+ * XEP-0231 data retrieval: requests data by cid and carries it in the result.
+ * @author Daniele Ricci
+ */
+public class BitsOfBinaryIQ extends IQ {
+    public static final String ELEMENT_NAME = BitsOfBinary.ELEMENT_NAME;
+    public static final String NAMESPACE = BitsOfBinary.NAMESPACE;
+
+    private final BitsOfBinary mData;
+    /** Content id and encoded contents, read once so that serialization does no I/O. */
+    private final String mCid;
+    private final String mContents;
+
+    /** Creates a request for the data with the given content id. */
+    public BitsOfBinaryIQ(String cid) {
+        this(BitsOfBinary.reference(cid));
+        setType(IQ.Type.get);
+    }
+
+    /**
+     * Creates a result carrying the given data. Its contents are read right
+     * away.
+     * @throws IllegalArgumentException if the data is not available
+     * @see #createResult
+     */
+    public BitsOfBinaryIQ(BitsOfBinary data) {
+        this(data, data.isReference() ? null : data.getEncodedContents());
+        if (!data.isReference() && mContents == null)
+            throw new IllegalArgumentException("data " + mCid + " is not available");
+    }
+
+    private BitsOfBinaryIQ(BitsOfBinary data, String contents) {
+        super(ELEMENT_NAME, NAMESPACE);
+        setType(IQ.Type.result);
+        mData = data;
+        mCid = data.getCid();
+        mContents = contents;
+    }
+
+    /**
+     * Creates the result of the given request, carrying the given data.
+     * If the data is not available (e.g. it can't be read), an
+     * item-not-found error is returned instead.
+     */
+    public static IQ createResult(BitsOfBinaryIQ request, BitsOfBinary data) {
+        String contents = data != null && !data.isReference() ?
+            data.getEncodedContents() : null;
+        if (contents == null)
+            return IQ.createErrorResponse(request, StanzaError.Condition.item_not_found);
+
+        BitsOfBinaryIQ iq = new BitsOfBinaryIQ(data, contents);
+        iq.setStanzaId(request.getStanzaId());
+        iq.setTo(request.getFrom());
+        return iq;
+    }
+
+    public BitsOfBinary getData() {
+        return mData;
+    }
+
+    public String getCid() {
+        return mCid;
+    }
+
+    @Override
+    protected IQChildElementXmlStringBuilder getIQChildElementBuilder(IQChildElementXmlStringBuilder xml) {
+        // always include the cid, it's what the requester is waiting for
+        xml.attribute("cid", mCid);
+        if (mData.getType() != null)
+            xml.attribute("type", mData.getType());
+
+        if (mContents == null) {
+            xml.setEmptyElement();
+        }
+        else {
+            xml.rightAngleBracket();
+            xml.append(mContents);
+        }
+        return xml;
+    }
+
+    public static final class Provider extends IQProvider<BitsOfBinaryIQ> {
+
+        @Override
+        public BitsOfBinaryIQ parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException, IOException, SmackException {
+            BitsOfBinary data = new BitsOfBinary.Provider().parse(parser, initialDepth);
+            if (data == null || data.getDeclaredCid() == null)
+                return null;
+
+            return new BitsOfBinaryIQ(data);
+        }
+
+    }
+
+}
@@ -21,7 +21,7 @@ package org.kontalk.client;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.BinaryPayload;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -37,16 +37,19 @@ public class E2EEncryption implements ExtensionElement {
     public static final String ELEMENT_NAME = "e2e";
     public static final String NAMESPACE = "urn:ietf:params:xml:ns:xmpp-e2e";
 
-    private byte[] mData;
-    private String mEncoded;
+    private final BinaryPayload mData;
 
     public E2EEncryption(byte[] data) {
-        mData = data;
+        this(BinaryPayload.fromBytes(data));
     }
 
+    /** The data will be decoded only when requested. */
     public E2EEncryption(String encoded) {
-        mEncoded = encoded;
-        mData = Base64.decode(encoded);
+        this(BinaryPayload.fromBase64(encoded));
+    }
+
+    public E2EEncryption(BinaryPayload data) {
+        mData = data;
     }
 
     @Override
@@ -59,22 +62,29 @@ public class E2EEncryption implements ExtensionElement {
         return NAMESPACE;
     }
 
+    /** Returns the decoded data, or null if it is not valid Base64. */
     public byte[] getData() {
+        try {
+            return mData.getBytes();
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public BinaryPayload getPayload() {
         return mData;
     }
 
     @Override
     public StringBuilder toXML(String enclosingNamespace) {
-        if (mEncoded == null)
-            mEncoded = Base64.encodeToString(mData);
-
         return new StringBuilder()
             .append('<')
             .append(ELEMENT_NAME)
             .append(" xmlns='")
             .append(NAMESPACE)
             .append("'>")
-            .append(mEncoded)
+            .append(mData.getBase64())
             .append("</")
             .append(ELEMENT_NAME)
             .append('>');
@@ -82,6 +92,20 @@ public class E2EEncryption implements ExtensionElement {
 
     public static class Provider extends ExtensionElementProvider<E2EEncryption> {
 
+        private final boolean mDirect;
+
+        public Provider() {
+            this(false);
+        }
+
+        /**
+         * @param direct true to keep payloads in direct buffers
+         * @see BinaryPayload#fromBase64(String, boolean)
+         */
+        public Provider(boolean direct) {
+            mDirect = direct;
+        }
+
         @Override
         public E2EEncryption parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException, IOException, SmackException {
             boolean done = false;
@@ -100,7 +124,7 @@ public class E2EEncryption implements ExtensionElement {
             }
 
             if (data != null)
-                return new E2EEncryption(data);
+                return new E2EEncryption(BinaryPayload.fromBase64(data, mDirect));
             else
                 return null;
         }
@@ -196,6 +196,15 @@ public class GroupExtension implements ExtensionElement {
         return ext;
     }
 
+    /**
+     * Adds a command changing the group members.
+     * @param members current members that are not being added or removed,
+     *  listed without any operation. They may be left out (i.e. empty) when
+     *  no one is being added, since existing members already know each
+     *  other; new members need the full list instead.
+     * @param addMembers members being added, may be null
+     * @param removeMembers members being removed, may be null
+     */
     public static GroupExtension addEditMembers(Stanza message, String groupId, Jid groupOwner, String subject, Jid[] members, Jid[] addMembers, Jid[] removeMembers) {
         if (addMembers == null && removeMembers == null)
             throw new IllegalArgumentException("At least one of add or remove members must not be null");
@@ -0,0 +1,127 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.address.packet.MultipleAddresses;
+import org.jxmpp.jid.Jid;
+import org.kontalk.client.OpenPGPExtension.SignCryptElement;
+
+
+/**
+ * <p>Group message content prepared for all members at once.</p>
+ * <p>
+ * The signcrypt element is serialized once (rpad included) into a single
+ * buffer, and the routing extension is built once too. Each member then
+ * gets an {@link Envelope} sharing that buffer, ready to be fed to the
+ * encryption stream for that member. Instances are immutable.
+ * </p>
+ * @author Daniele Ricci
+ * @see KontalkGroupManager.KontalkGroup#fanOut
+ */
+public final class GroupFanOut {
+
+    private final Jid[] mMembers;
+    private final byte[] mContent;
+    private final int mLength;
+    private final MultipleAddresses mRoute;
+
+    /** Gives access to its buffer, to avoid a copy. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(1024);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    public GroupFanOut(Jid[] members, SignCryptElement content) throws IOException {
+        mMembers = members.clone();
+
+        Buffer out = new Buffer();
+        content.writeTo(out);
+        mContent = out.buffer();
+        mLength = out.size();
+
+        mRoute = KontalkGroupManager.KontalkGroup.createRouteExtension(mMembers);
+    }
+
+    /** Returns the serialized signcrypt element (UTF-8) as a read-only buffer. */
+    public ByteBuffer getContent() {
+        return ByteBuffer.wrap(mContent, 0, mLength).asReadOnlyBuffer();
+    }
+
+    /** Returns the routing extension, shared by all the stanzas. */
+    public MultipleAddresses getRouteExtension() {
+        return mRoute;
+    }
+
+    /** Adds the routing extension to the given stanza. */
+    public void addRouteExtension(Stanza message) {
+        message.addExtension(mRoute);
+    }
+
+    /** Returns an envelope for each member, in the order they were given. */
+    public List<Envelope> getEnvelopes() {
+        return new AbstractList<Envelope>() {
+            @Override
+            public Envelope get(int index) {
+                return new Envelope(mMembers[index]);
+            }
+
+            @Override
+            public int size() {
+                return mMembers.length;
+            }
+        };
+    }
+
+    /** The shared content addressed to a single member. */
+    public final class Envelope {
+        private final Jid mRecipient;
+
+        Envelope(Jid recipient) {
+            mRecipient = recipient;
+        }
+
+        public Jid getRecipient() {
+            return mRecipient;
+        }
+
+        /** Returns the serialized signcrypt element as a read-only buffer, without copying it. */
+        public ByteBuffer getContent() {
+            return GroupFanOut.this.getContent();
+        }
+
+        /** Writes the serialized signcrypt element to the given stream, e.g. an encryption stream. */
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(mContent, 0, mLength);
+        }
+    }
+
+}
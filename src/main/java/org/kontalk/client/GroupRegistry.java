@@ -0,0 +1,236 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.kontalk.client.KontalkGroupManager.KontalkGroup;
+
+
+/**
+ * <p>Registry of the {@link KontalkGroup}s of a connection.</p>
+ * <p>
+ * Groups are weakly referenced, so a group nobody uses anymore can be
+ * collected; its entry is then removed on the next access to the registry.
+ * The most recently used groups can also be held strongly, up to
+ * {@link #setMaxHotGroups a given number}, so that they survive between
+ * messages even if the application doesn't keep them around. Lookups don't
+ * take any lock, except for keeping track of the hot groups if enabled.
+ * </p>
+ * @author Daniele Ricci
+ */
+public final class GroupRegistry {
+
+    /** Group id and owner. Equivalent to the group JID, without building it. */
+    private static final class GroupKey {
+        final String id;
+        final Jid owner;
+        private final int hash;
+
+        GroupKey(String id, Jid owner) {
+            this.id = id;
+            this.owner = owner;
+            this.hash = 31 * id.hashCode() + owner.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof GroupKey))
+                return false;
+            GroupKey other = (GroupKey) o;
+            return hash == other.hash && id.equals(other.id) && owner.equals(other.owner);
+        }
+    }
+
+    /** Remembers its key so it can be removed once cleared. */
+    private static final class GroupRef extends WeakReference<KontalkGroup> {
+        final GroupKey key;
+
+        GroupRef(GroupKey key, KontalkGroup group, ReferenceQueue<KontalkGroup> queue) {
+            super(group, queue);
+            this.key = key;
+        }
+    }
+
+    /** Most recently used groups, evicting beyond the registry limit. */
+    private static final class HotGroups extends LinkedHashMap<GroupKey, KontalkGroup> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient GroupRegistry mRegistry;
+
+        HotGroups(GroupRegistry registry) {
+            super(16, 0.75f, true);
+            mRegistry = registry;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<GroupKey, KontalkGroup> eldest) {
+            if (size() > mRegistry.mMaxHotGroups) {
+                mRegistry.mEvictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final WeakReference<XMPPConnection> mConnection;
+
+    private final ConcurrentMap<GroupKey, GroupRef> mGroups = new ConcurrentHashMap<>();
+    private final ReferenceQueue<KontalkGroup> mQueue = new ReferenceQueue<>();
+
+    private volatile int mMaxHotGroups;
+    private final ReentrantLock mHotLock = new ReentrantLock();
+    private final HotGroups mHotGroups = new HotGroups(this);
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    GroupRegistry(XMPPConnection connection) {
+        mConnection = new WeakReference<>(connection);
+    }
+
+    /** Returns the group with the given id and owner, creating it if needed. */
+    public KontalkGroup get(String groupId, Jid groupOwner) throws XmppStringprepException {
+        expunge();
+
+        GroupKey key = new GroupKey(groupId, groupOwner);
+        KontalkGroup created = null;
+        while (true) {
+            GroupRef ref = mGroups.get(key);
+            KontalkGroup group = ref != null ? ref.get() : null;
+            if (group != null) {
+                mHits.incrementAndGet();
+                touch(key, group, false);
+                return group;
+            }
+
+            if (created == null)
+                created = new KontalkGroup(mConnection.get(), groupId, groupOwner);
+
+            GroupRef newRef = new GroupRef(key, created, mQueue);
+            boolean stored = ref != null ?
+                mGroups.replace(key, ref, newRef) : mGroups.putIfAbsent(key, newRef) == null;
+            if (stored) {
+                mMisses.incrementAndGet();
+                touch(key, created, true);
+                return created;
+            }
+            // another thread got there first, use its group
+        }
+    }
+
+    /**
+     * Marks a group as recently used. Updates of existing entries are skipped
+     * if another thread is already at it: a slightly stale order is cheaper
+     * than waiting on each other.
+     */
+    private void touch(GroupKey key, KontalkGroup group, boolean added) {
+        if (mMaxHotGroups <= 0)
+            return;
+
+        if (added)
+            mHotLock.lock();
+        else if (!mHotLock.tryLock())
+            return;
+
+        try {
+            mHotGroups.put(key, group);
+        }
+        finally {
+            mHotLock.unlock();
+        }
+    }
+
+    /** Removes the entries of collected groups. */
+    private void expunge() {
+        GroupRef ref;
+        while ((ref = (GroupRef) mQueue.poll()) != null) {
+            // the entry might have been replaced in the meantime
+            mGroups.remove(ref.key, ref);
+        }
+    }
+
+    /**
+     * Sets how many of the most recently used groups are held strongly.
+     * Zero (the default) disables it and groups are only weakly referenced.
+     */
+    public void setMaxHotGroups(int maxHotGroups) {
+        if (maxHotGroups < 0)
+            throw new IllegalArgumentException("negative size");
+
+        mHotLock.lock();
+        try {
+            mMaxHotGroups = maxHotGroups;
+            Iterator<KontalkGroup> iter = mHotGroups.values().iterator();
+            while (mHotGroups.size() > maxHotGroups && iter.hasNext()) {
+                iter.next();
+                iter.remove();
+                mEvictions.incrementAndGet();
+            }
+        }
+        finally {
+            mHotLock.unlock();
+        }
+    }
+
+    public int getMaxHotGroups() {
+        return mMaxHotGroups;
+    }
+
+    /** Returns the number of registered groups, including those not yet cleaned up. */
+    public int size() {
+        expunge();
+        return mGroups.size();
+    }
+
+    /** Number of lookups that found an existing group. */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /** Number of lookups that created a new group. */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** Number of groups dropped from the most recently used ones. */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+}
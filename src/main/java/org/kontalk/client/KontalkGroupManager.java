@@ -18,10 +18,8 @@
 
 package org.kontalk.client;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.Manager;
@@ -35,6 +33,7 @@ import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 import org.jxmpp.util.XmppStringUtils;
+import org.kontalk.client.OpenPGPExtension.SignCryptElement;
 
 
 /**
@@ -43,7 +42,12 @@ import org.jxmpp.util.XmppStringUtils;
  */
 public class KontalkGroupManager extends Manager {
 
-    private static Map<XMPPConnection, KontalkGroupManager> INSTANCES = new WeakHashMap<>();
+    private static final ManagerRegistry<KontalkGroupManager> INSTANCES = new ManagerRegistry<KontalkGroupManager>() {
+        @Override
+        protected KontalkGroupManager create(XMPPConnection connection) {
+            return new KontalkGroupManager(connection);
+        }
+    };
 
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(new ConnectionCreationListener() {
@@ -54,34 +58,31 @@ public class KontalkGroupManager extends Manager {
         });
     }
 
-    public static synchronized KontalkGroupManager getInstanceFor(XMPPConnection connection) {
-        KontalkGroupManager manager = INSTANCES.get(connection);
-
-        if (manager == null) {
-            manager = new KontalkGroupManager(connection);
-            INSTANCES.put(connection, manager);
-        }
-
-        return manager;
+    public static KontalkGroupManager getInstanceFor(XMPPConnection connection) {
+        return INSTANCES.get(connection);
     }
 
     /** Handles a single group. An instance is created for each group to be managed. */
     public static class KontalkGroup {
-        private final XMPPConnection mConnection;
+        /** Groups can be held by the manager, they must not keep the connection alive. */
+        private final WeakReference<XMPPConnection> mConnection;
 
         private final String mGroupId;
         private final Jid mGroupOwner;
         private String mSubject;
         private Jid[] mMembers;
+        /** Built from {@link #mMembers} when needed. */
+        private MemberSet mMemberSet;
 
         public KontalkGroup(XMPPConnection connection, String groupId, Jid groupOwner) throws XmppStringprepException {
-            mConnection = connection;
+            mConnection = new WeakReference<>(connection);
             mGroupId = groupId;
             mGroupOwner = JidCreate.entityBareFrom(groupOwner);
         }
 
         public boolean isOwned() {
-            return isOwned(mConnection.getUser());
+            XMPPConnection connection = mConnection.get();
+            return connection != null && isOwned(connection.getUser());
         }
 
         public boolean isOwned(Jid by) {
@@ -90,7 +91,7 @@ public class KontalkGroupManager extends Manager {
 
         public void create(String subject, Jid[] members, Stanza message) {
             mSubject = subject != null ? subject : "";
-            mMembers = members;
+            setMemberList(members);
             GroupExtension.addCreateGroup(message, mGroupId, mGroupOwner, mSubject, mMembers);
         }
 
@@ -105,22 +106,91 @@ public class KontalkGroupManager extends Manager {
 
         public void addRemoveMembers(String subject, Jid[] members, Jid[] added, Jid[] removed, Stanza message) {
             mSubject = subject != null ? subject : "";
-            mMembers = members;
+            setMemberList(members);
             GroupExtension.addEditMembers(message, mGroupId, mGroupOwner, mSubject,
                 mMembers, added, removed);
         }
 
+        /**
+         * Changes the members of the group to the given ones, sending only
+         * the differences with the current members. Current members are
+         * listed too only if someone is being added, since new members need
+         * to know them: an edit that only removes members carries no member
+         * list (see {@link GroupExtension#addEditMembers}). If members don't
+         * change but the subject does, only the subject is set.
+         * @return the added extension, or null if neither members nor subject changed
+         * @throws IllegalStateException if the current members are not known
+         * @see #setMembers(Jid[])
+         */
+        public GroupExtension editMembers(String subject, Jid[] members, Stanza message) {
+            MemberSet current = getMembers();
+            if (current == null)
+                throw new IllegalStateException("current members are not known");
+
+            if (subject == null)
+                subject = "";
+
+            MemberSet target = MemberSet.of(members);
+            MemberSet.Delta delta = current.diff(target);
+            if (delta.isEmpty()) {
+                if (subject.equals(mSubject != null ? mSubject : ""))
+                    return null;
+
+                mSubject = subject;
+                return GroupExtension.addSetSubject(message, mGroupId, mGroupOwner, mSubject);
+            }
+
+            mSubject = subject;
+            mMembers = target.toArray();
+            mMemberSet = target;
+
+            Jid[] added = delta.getAdded();
+            return GroupExtension.addEditMembers(message, mGroupId, mGroupOwner, mSubject,
+                added.length > 0 ? delta.getKept() : new Jid[0], added, delta.getRemoved());
+        }
+
+        /** Sets the current members (e.g. from storage), without sending anything. */
+        public void setMembers(Jid[] members) {
+            setMemberList(members);
+        }
+
+        /** Returns the current members, or null if not known. */
+        public MemberSet getMembers() {
+            if (mMemberSet == null && mMembers != null)
+                mMemberSet = MemberSet.of(mMembers);
+            return mMemberSet;
+        }
+
+        private void setMemberList(Jid[] members) {
+            mMembers = members;
+            mMemberSet = null;
+        }
+
         public void groupInfo(Stanza message) {
             GroupExtension.addGroupInfo(message, mGroupId, mGroupOwner);
         }
 
         /** Process an outgoing message for routing. */
         public void addRouteExtension(Jid[] members, Stanza message) {
-            mMembers = members;
+            setMemberList(members);
+            message.addExtension(createRouteExtension(mMembers));
+        }
+
+        /**
+         * Prepares an outgoing message for all the given members, serializing
+         * its content only once.
+         * @see GroupFanOut
+         */
+        public GroupFanOut fanOut(Jid[] members, SignCryptElement content) throws IOException {
+            setMemberList(members);
+            return new GroupFanOut(members, content);
+        }
+
+        static MultipleAddresses createRouteExtension(Jid[] members) {
             MultipleAddresses p = new MultipleAddresses();
-            for (Jid rcpt : mMembers)
+            for (Jid rcpt : members)
                 p.addAddress(MultipleAddresses.Type.to, rcpt, null, null, false, null);
-            message.addExtension(p);
+            return p;
         }
 
         public Jid getJid() {
@@ -146,9 +216,14 @@ public class KontalkGroupManager extends Manager {
         super(connection);
     }
 
-    private Map<String, WeakReference<KontalkGroup>> mGroups = new HashMap<>();
+    private final GroupRegistry mGroups = new GroupRegistry(connection());
+
+    /** Returns the registry of the groups handled by this manager. */
+    public GroupRegistry getGroups() {
+        return mGroups;
+    }
 
-    public synchronized KontalkGroup getGroup(Stanza packet) throws XmppStringprepException {
+    public KontalkGroup getGroup(Stanza packet) throws XmppStringprepException {
         if (packet instanceof Message) {
             ExtensionElement ext = packet.getExtension(GroupExtension.ELEMENT_NAME, GroupExtension.NAMESPACE);
             if (ext instanceof GroupExtension) {
@@ -159,25 +234,14 @@ public class KontalkGroupManager extends Manager {
         return null;
     }
 
-    public synchronized KontalkGroup getGroup(Jid groupJid) throws XmppStringprepException {
+    public KontalkGroup getGroup(Jid groupJid) throws XmppStringprepException {
         String id = groupJid.getLocalpartOrNull().toString();
         Jid owner = JidCreate.fromOrThrowUnchecked(groupJid.getDomain().toString());
         return getGroup(id, owner);
     }
 
-    public synchronized KontalkGroup getGroup(String groupId, Jid groupOwner) throws XmppStringprepException {
-        String key = XmppStringUtils.completeJidFrom(groupId, groupOwner);
-        WeakReference<KontalkGroup> groupRef = mGroups.get(key);
-
-        KontalkGroup group = (groupRef != null) ? groupRef.get() : null;
-
-        if (group == null) {
-            group = new KontalkGroup(connection(), groupId, groupOwner);
-            groupRef = new WeakReference<>(group);
-            mGroups.put(key, groupRef);
-        }
-
-        return group;
+    public KontalkGroup getGroup(String groupId, Jid groupOwner) throws XmppStringprepException {
+        return mGroups.get(groupId, groupOwner);
     }
 
 }
@@ -0,0 +1,264 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.text.ParseException;
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.xmlpull.v1.XmlPullParser;
+
+
+/**
+ * <p>Children of an XML element, parsed into extension elements on access.</p>
+ * <p>
+ * {@link #scan} finds the children of a container element by looking at
+ * tag boundaries only, which is much cheaper than parsing them. Each child
+ * is parsed the first time it's accessed, together with the namespace
+ * declarations in scope for the container (see {@link #setNamespaces}), so
+ * the result is the same as parsing it in place. Malformed children are
+ * reported at that time, through an {@link IllegalStateException}.
+ * </p>
+ * @author Daniele Ricci
+ */
+class LazyExtensionList extends AbstractList<ExtensionElement> {
+
+    private final String mSource;
+    private final String mContainer;
+    /** Start of the container content, i.e. right after its start tag. */
+    private final int mContentStart;
+    /** End of the container content, i.e. its end tag. */
+    private final int mContentEnd;
+    /** Start and end offsets of each child. */
+    private final int[] mRanges;
+    private final ExtensionElement[] mElements;
+
+    private String mWrapperStart;
+
+    private LazyExtensionList(String source, String container, int contentStart, int contentEnd, int[] ranges, int count) {
+        mSource = source;
+        mContainer = container;
+        mContentStart = contentStart;
+        mContentEnd = contentEnd;
+        mRanges = ranges;
+        mElements = new ExtensionElement[count];
+        mWrapperStart = "<" + container + ">";
+    }
+
+    /**
+     * Looks for the first element with the given name among the children of
+     * the root element and records the position of its own children.
+     * @return the children of the container, or null if it wasn't found or it's empty
+     * @throws ParseException if the tag structure is broken
+     */
+    static LazyExtensionList scan(String xml, String container) throws ParseException {
+        int depth = 0;
+        int contentStart = -1;
+        int[] ranges = new int[8];
+        int count = 0;
+        int childStart = -1;
+
+        int pos = 0;
+        while (true) {
+            int start = xml.indexOf('<', pos);
+            if (start < 0)
+                throw new ParseException("unexpected end of document", xml.length());
+
+            pos = skipMarkup(xml, start);
+            if (pos >= 0)
+                continue;
+
+            int end = tagEnd(xml, start);
+            pos = end + 1;
+
+            if (xml.charAt(start + 1) == '/') {
+                depth--;
+                if (depth < 0)
+                    throw new ParseException("unbalanced end tag", start);
+
+                if (contentStart >= 0) {
+                    if (depth == 1)
+                        // end of container
+                        return count > 0 ? new LazyExtensionList(xml, container,
+                            contentStart, start, ranges, count) : null;
+
+                    if (depth == 2) {
+                        ranges = record(ranges, count++, childStart, pos);
+                    }
+                }
+                else if (depth == 0) {
+                    // end of root
+                    return null;
+                }
+            }
+            else {
+                boolean empty = xml.charAt(end - 1) == '/';
+                if (contentStart >= 0) {
+                    if (depth == 2) {
+                        if (empty)
+                            ranges = record(ranges, count++, start, pos);
+                        else
+                            childStart = start;
+                    }
+                }
+                else if (depth == 1 && container.equals(localName(xml, start))) {
+                    if (empty)
+                        return null;
+                    contentStart = pos;
+                }
+
+                if (!empty)
+                    depth++;
+            }
+        }
+    }
+
+    /**
+     * Sets the namespace declarations in scope for the container, from a
+     * parser positioned on its start tag.
+     */
+    void setNamespaces(XmlPullParser parser) throws Exception {
+        // later declarations override earlier ones
+        Map<String, String> namespaces = new LinkedHashMap<>();
+        int count = parser.getNamespaceCount(parser.getDepth());
+        for (int i = 0; i < count; i++) {
+            String prefix = parser.getNamespacePrefix(i);
+            if (!"xml".equals(prefix) && !"xmlns".equals(prefix))
+                namespaces.put(prefix, parser.getNamespaceUri(i));
+        }
+
+        XmlStringBuilder xml = new XmlStringBuilder().halfOpenElement(mContainer);
+        for (Map.Entry<String, String> ns : namespaces.entrySet())
+            xml.attribute(ns.getKey() != null ? "xmlns:" + ns.getKey() : "xmlns", ns.getValue());
+        mWrapperStart = xml.rightAngleBracket().toString();
+    }
+
+    /** Returns the source document without the container content. */
+    String stripContent() {
+        return mSource.substring(0, mContentStart) + mSource.substring(mContentEnd);
+    }
+
+    @Override
+    public int size() {
+        return mElements.length;
+    }
+
+    @Override
+    public synchronized ExtensionElement get(int index) {
+        ExtensionElement element = mElements[index];
+        if (element == null) {
+            try {
+                element = parse(index);
+            }
+            catch (Exception e) {
+                throw new IllegalStateException("invalid element in " + mContainer, e);
+            }
+            mElements[index] = element;
+        }
+        return element;
+    }
+
+    private ExtensionElement parse(int index) throws Exception {
+        String xml = mWrapperStart +
+            mSource.substring(mRanges[index * 2], mRanges[index * 2 + 1]) +
+            "</" + mContainer + ">";
+
+        XmlPullParser parser = PacketParserUtils.getParserFor(xml);
+        int eventType;
+        do {
+            eventType = parser.next();
+        }
+        while (eventType != XmlPullParser.START_TAG);
+
+        return PacketParserUtils.parseExtensionElement(parser.getName(), parser.getNamespace(), parser);
+    }
+
+    private static int[] record(int[] ranges, int index, int start, int end) {
+        if (ranges.length < (index + 1) * 2) {
+            int[] grown = new int[ranges.length * 2];
+            System.arraycopy(ranges, 0, grown, 0, ranges.length);
+            ranges = grown;
+        }
+        ranges[index * 2] = start;
+        ranges[index * 2 + 1] = end;
+        return ranges;
+    }
+
+    /**
+     * Skips comments, CDATA sections, processing instructions and
+     * declarations starting at the given position.
+     * @return the position after the markup, or -1 if it's a tag
+     */
+    private static int skipMarkup(String xml, int start) throws ParseException {
+        String terminator;
+        if (xml.startsWith("<!--", start))
+            terminator = "-->";
+        else if (xml.startsWith("<![CDATA[", start))
+            terminator = "]]>";
+        else if (xml.startsWith("<?", start))
+            terminator = "?>";
+        else if (xml.startsWith("<!", start))
+            terminator = ">";
+        else
+            return -1;
+
+        int end = xml.indexOf(terminator, start);
+        if (end < 0)
+            throw new ParseException("unterminated markup", start);
+        return end + terminator.length();
+    }
+
+    /** Returns the position of the closing bracket of a tag, skipping quoted attribute values. */
+    private static int tagEnd(String xml, int start) throws ParseException {
+        char quote = 0;
+        for (int i = start + 1; i < xml.length(); i++) {
+            char c = xml.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            }
+            else if (c == '"' || c == '\'') {
+                quote = c;
+            }
+            else if (c == '>') {
+                return i;
+            }
+        }
+        throw new ParseException("unterminated tag", start);
+    }
+
+    private static String localName(String xml, int start) {
+        int end = start + 1;
+        int nameStart = end;
+        while (end < xml.length()) {
+            char c = xml.charAt(end);
+            if (c == '>' || c == '/' || Character.isWhitespace(c))
+                break;
+            if (c == ':')
+                nameStart = end + 1;
+            end++;
+        }
+        return xml.substring(nameStart, end);
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jivesoftware.smack.XMPPConnection;
+
+
+/**
+ * <p>Per-connection manager instances, weakly keyed by connection identity.</p>
+ * <p>
+ * Looking up an existing instance doesn't take any lock. Creation is
+ * serialized by a lock chosen by the connection, so that only one instance
+ * is ever created for a connection while unrelated connections are not held
+ * back. Managers must not reference their connection strongly (Smack
+ * managers don't), or the connection would never be released.
+ * </p>
+ * @author Daniele Ricci
+ */
+abstract class ManagerRegistry<M> {
+
+    private static final int STRIPES = 16;
+
+    /** Common view of stored keys and lookup keys. */
+    private interface Key {
+        XMPPConnection connection();
+    }
+
+    private static boolean keyEquals(Key key, int hash, Object o) {
+        if (key == o)
+            return true;
+        if (!(o instanceof Key) || o.hashCode() != hash)
+            return false;
+        XMPPConnection connection = key.connection();
+        return connection != null && connection == ((Key) o).connection();
+    }
+
+    /** Stored key, cleared when the connection is collected. */
+    private static final class ConnectionRef extends WeakReference<XMPPConnection> implements Key {
+        private final int hash;
+
+        ConnectionRef(XMPPConnection connection, ReferenceQueue<XMPPConnection> queue) {
+            super(connection, queue);
+            hash = System.identityHashCode(connection);
+        }
+
+        @Override
+        public XMPPConnection connection() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return keyEquals(this, hash, o);
+        }
+    }
+
+    /** Short-lived key used for lookups. */
+    private static final class LookupKey implements Key {
+        private final XMPPConnection connection;
+        private final int hash;
+
+        LookupKey(XMPPConnection connection) {
+            this.connection = connection;
+            hash = System.identityHashCode(connection);
+        }
+
+        @Override
+        public XMPPConnection connection() {
+            return connection;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return keyEquals(this, hash, o);
+        }
+    }
+
+    private final ConcurrentMap<Key, M> mInstances = new ConcurrentHashMap<>();
+    private final ReferenceQueue<XMPPConnection> mQueue = new ReferenceQueue<>();
+    private final Object[] mLocks = new Object[STRIPES];
+
+    ManagerRegistry() {
+        for (int i = 0; i < mLocks.length; i++)
+            mLocks[i] = new Object();
+    }
+
+    /** Creates the manager for the given connection. */
+    protected abstract M create(XMPPConnection connection);
+
+    /** Returns the manager of the given connection, creating it if needed. */
+    public M get(XMPPConnection connection) {
+        LookupKey key = new LookupKey(connection);
+        M manager = mInstances.get(key);
+        if (manager != null)
+            return manager;
+
+        synchronized (mLocks[(key.hash ^ (key.hash >>> 16)) & (STRIPES - 1)]) {
+            manager = mInstances.get(key);
+            if (manager == null) {
+                expunge();
+                manager = create(connection);
+                mInstances.put(new ConnectionRef(connection, mQueue), manager);
+            }
+            return manager;
+        }
+    }
+
+    /** Removes the managers of collected connections. */
+    private void expunge() {
+        Object ref;
+        while ((ref = mQueue.poll()) != null)
+            mInstances.remove(ref);
+    }
+
+    /** Returns the number of managers, not counting those of collected connections. */
+    public int size() {
+        expunge();
+        return mInstances.size();
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.Arrays;
+
+import org.jxmpp.jid.Jid;
+
+
+/**
+ * <p>Immutable set of group members, kept as a sorted array of JIDs.</p>
+ * <p>
+ * Sorting is done once when the set is created (and skipped if the members
+ * are already sorted), so that lookups are binary searches and
+ * {@link #diff(MemberSet) diffs} between two sets are a single linear merge.
+ * </p>
+ * @author Daniele Ricci
+ */
+public final class MemberSet {
+
+    public static final MemberSet EMPTY = new MemberSet(new Jid[0]);
+
+    /** Sorted, no duplicates. */
+    private final Jid[] mMembers;
+
+    private MemberSet(Jid[] members) {
+        mMembers = members;
+    }
+
+    /** Creates a set of the given members. Duplicates are dropped. */
+    public static MemberSet of(Jid... members) {
+        if (members.length == 0)
+            return EMPTY;
+
+        Jid[] sorted = members.clone();
+        if (!isSortedAndUnique(sorted)) {
+            Arrays.sort(sorted);
+
+            int count = 1;
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i].compareTo(sorted[count - 1]) != 0)
+                    sorted[count++] = sorted[i];
+            }
+            if (count < sorted.length)
+                sorted = Arrays.copyOf(sorted, count);
+        }
+        return new MemberSet(sorted);
+    }
+
+    private static boolean isSortedAndUnique(Jid[] members) {
+        for (int i = 1; i < members.length; i++) {
+            if (members[i - 1].compareTo(members[i]) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        return mMembers.length;
+    }
+
+    public boolean isEmpty() {
+        return mMembers.length == 0;
+    }
+
+    /** Returns the member at the given position, in JID order. */
+    public Jid get(int index) {
+        return mMembers[index];
+    }
+
+    public boolean contains(Jid jid) {
+        return Arrays.binarySearch(mMembers, jid) >= 0;
+    }
+
+    /** Returns the members in JID order. */
+    public Jid[] toArray() {
+        return mMembers.clone();
+    }
+
+    /** Computes the changes needed to turn this set into the given one. */
+    public Delta diff(MemberSet target) {
+        Jid[] from = mMembers;
+        Jid[] to = target.mMembers;
+        Jid[] added = new Jid[to.length];
+        Jid[] removed = new Jid[from.length];
+        Jid[] kept = new Jid[Math.min(from.length, to.length)];
+        int addedCount = 0, removedCount = 0, keptCount = 0;
+
+        int i = 0, j = 0;
+        while (i < from.length && j < to.length) {
+            int cmp = from[i].compareTo(to[j]);
+            if (cmp == 0) {
+                kept[keptCount++] = from[i++];
+                j++;
+            }
+            else if (cmp < 0) {
+                removed[removedCount++] = from[i++];
+            }
+            else {
+                added[addedCount++] = to[j++];
+            }
+        }
+        while (i < from.length)
+            removed[removedCount++] = from[i++];
+        while (j < to.length)
+            added[addedCount++] = to[j++];
+
+        return new Delta(Arrays.copyOf(added, addedCount),
+            Arrays.copyOf(removed, removedCount),
+            Arrays.copyOf(kept, keptCount));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof MemberSet && Arrays.equals(mMembers, ((MemberSet) o).mMembers));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mMembers);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(mMembers);
+    }
+
+    /** Changes between two member sets. All arrays are in JID order. */
+    public static final class Delta {
+        private final Jid[] mAdded;
+        private final Jid[] mRemoved;
+        private final Jid[] mKept;
+
+        Delta(Jid[] added, Jid[] removed, Jid[] kept) {
+            mAdded = added;
+            mRemoved = removed;
+            mKept = kept;
+        }
+
+        public Jid[] getAdded() {
+            return mAdded.clone();
+        }
+
+        public Jid[] getRemoved() {
+            return mRemoved.clone();
+        }
+
+        /** Members found in both sets. */
+        public Jid[] getKept() {
+            return mKept.clone();
+        }
+
+        public boolean isEmpty() {
+            return mAdded.length == 0 && mRemoved.length == 0;
+        }
+    }
+
+}
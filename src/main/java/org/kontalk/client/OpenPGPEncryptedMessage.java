@@ -21,7 +21,7 @@ package org.kontalk.client;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.BinaryPayload;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -38,13 +38,27 @@ public class OpenPGPEncryptedMessage implements ExtensionElement {
     public static final String ELEMENT_NAME = "x";
     public static final String NAMESPACE = "jabber:x:encrypted";
 
-    private byte[] mData;
+    private final BinaryPayload mData;
 
     public OpenPGPEncryptedMessage(byte[] data) {
+        this(BinaryPayload.fromBytes(data));
+    }
+
+    public OpenPGPEncryptedMessage(BinaryPayload data) {
         mData = data;
     }
 
+    /** Returns the decoded data, or null if it is not valid Base64. */
     public byte[] getData() {
+        try {
+            return mData.getBytes();
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public BinaryPayload getPayload() {
         return mData;
     }
 
@@ -66,7 +80,7 @@ public class OpenPGPEncryptedMessage implements ExtensionElement {
             .append(" xmlns='")
             .append(NAMESPACE)
             .append("'><![CDATA[")
-            .append(Base64.encodeToString(mData))
+            .append(mData.getBase64())
             .append("]]></")
             .append(ELEMENT_NAME)
             .append('>');
@@ -74,6 +88,20 @@ public class OpenPGPEncryptedMessage implements ExtensionElement {
 
     public static final class Provider extends ExtensionElementProvider<OpenPGPEncryptedMessage> {
 
+        private final boolean mDirect;
+
+        public Provider() {
+            this(false);
+        }
+
+        /**
+         * @param direct true to keep payloads in direct buffers
+         * @see BinaryPayload#fromBase64(String, boolean)
+         */
+        public Provider(boolean direct) {
+            mDirect = direct;
+        }
+
         @Override
         public OpenPGPEncryptedMessage parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException, IOException, SmackException {
             String contents = null;
@@ -95,7 +123,7 @@ public class OpenPGPEncryptedMessage implements ExtensionElement {
             }
 
             if (contents != null)
-                return new OpenPGPEncryptedMessage(Base64.decode(contents));
+                return new OpenPGPEncryptedMessage(BinaryPayload.fromBase64(contents, mDirect));
             else
                 return null;
         }
@@ -19,6 +19,10 @@
 package org.kontalk.client;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -29,9 +33,12 @@ import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.NamedElement;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
 import org.jivesoftware.smack.util.PacketParserUtils;
-import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jxmpp.util.XmppDateTime;
+import org.kontalk.util.BinaryPayload;
+import org.kontalk.util.PaddingPolicy;
+import org.kontalk.util.PaddingSource;
+import org.kontalk.util.TimestampCodec;
+import org.kontalk.util.UTF8Utils;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -49,10 +56,14 @@ public class OpenPGPExtension implements ExtensionElement {
     public static final String ELEMENT_NAME = "openpgp";
     public static final String NAMESPACE = "urn:xmpp:openpgp:0";
 
-    private final String mBase64Data;
+    private final BinaryPayload mData;
 
     public OpenPGPExtension(String base64Data) {
-        mBase64Data = base64Data;
+        this(BinaryPayload.fromBase64(base64Data));
+    }
+
+    public OpenPGPExtension(BinaryPayload data) {
+        mData = data;
     }
 
     @Override
@@ -66,7 +77,11 @@ public class OpenPGPExtension implements ExtensionElement {
     }
 
     public String getData() {
-        return mBase64Data;
+        return mData.getBase64();
+    }
+
+    public BinaryPayload getPayload() {
+        return mData;
     }
 
     @Override
@@ -75,17 +90,31 @@ public class OpenPGPExtension implements ExtensionElement {
                 .halfOpenElement(ELEMENT_NAME)
                 .xmlnsAttribute(NAMESPACE)
                 .rightAngleBracket()
-                .escape(mBase64Data)
+                .escape(mData.getBase64())
                 .closeElement(ELEMENT_NAME);
     }
 
     public static class Provider extends ExtensionElementProvider<OpenPGPExtension> {
 
+        private final boolean mDirect;
+
+        public Provider() {
+            this(false);
+        }
+
+        /**
+         * @param direct true to keep payloads in direct buffers
+         * @see BinaryPayload#fromBase64(String, boolean)
+         */
+        public Provider(boolean direct) {
+            mDirect = direct;
+        }
+
         @Override
         public OpenPGPExtension parse(XmlPullParser parser, int initialDepth)
                 throws XmlPullParserException, IOException, SmackException {
             String base64Data = parser.nextText();
-            return new OpenPGPExtension(base64Data);
+            return new OpenPGPExtension(BinaryPayload.fromBase64(base64Data, mDirect));
         }
 
     }
@@ -99,19 +128,34 @@ public class OpenPGPExtension implements ExtensionElement {
         public static final String ELEMENT_NAME = "signcrypt";
         public static final String NAMESPACE = "urn:xmpp:openpgp:0";
 
+        private static final String OPEN_PAYLOAD = "<payload>";
+        private static final String CLOSE_ELEMENT = "</payload></" + ELEMENT_NAME + ">";
+        /** Length of the rpad start and end tags. */
+        private static final int RPAD_TAGS_LENGTH = "<rpad></rpad>".length();
+
         private final List<String> mJIDs;
         private final Date mStamp;
-        private final int mRPadLength;
+        private final PaddingPolicy mPadding;
         private final List<ExtensionElement> mPayloadExtensions;
 
         public SignCryptElement(List<String> jids, Date timeStamp, int rpadLength,
                                 List<ExtensionElement> payloadExtensions) {
+            this(jids, timeStamp, rpadLength > 0 ? PaddingPolicy.fixed(rpadLength) : PaddingPolicy.NONE,
+                payloadExtensions);
+        }
+
+        /**
+         * @param padding decides the length of the rpad element, possibly
+         *                from the encoded length of the element
+         */
+        public SignCryptElement(List<String> jids, Date timeStamp, PaddingPolicy padding,
+                                List<ExtensionElement> payloadExtensions) {
             if (jids.isEmpty())
                 throw new IllegalArgumentException("Need at least one 'to' jid");
 
             mJIDs = jids;
             mStamp = timeStamp;
-            mRPadLength = rpadLength;
+            mPadding = padding;
             mPayloadExtensions = payloadExtensions;
         }
 
@@ -137,33 +181,158 @@ public class OpenPGPExtension implements ExtensionElement {
             return mPayloadExtensions;
         }
 
+        public PaddingPolicy getPaddingPolicy() {
+            return mPadding;
+        }
+
         @Override
         public XmlStringBuilder toXML(String enclosingNamespace) {
+            XmlStringBuilder buf = openElement();
+            List<CharSequence> payload = mPadding.isContentDependent() ? payloadXML() : null;
+            int padding = paddingLength(buf, payload);
+
+            if (padding >= 0)
+                buf.openElement("rpad")
+                        .append(PaddingSource.randomChars(padding))
+                        .closeElement("rpad");
+            buf.openElement("payload");
+            if (payload != null) {
+                for (CharSequence xml : payload)
+                    buf.append(xml);
+            }
+            else {
+                for (NamedElement payloadElement : mPayloadExtensions)
+                    buf.append(payloadElement.toXML(NAMESPACE));
+            }
+            buf.closeElement("payload")
+                    .closeElement(ELEMENT_NAME);
+            return buf;
+        }
+
+        /**
+         * Writes the element to the given writer, one payload extension at a
+         * time, without building the whole element in memory first. The
+         * output is the same as {@link #toXML}. Padding policies depending
+         * on the content length need the payload serialized in advance,
+         * which defeats streaming.
+         * @see PaddingPolicy#isContentDependent()
+         */
+        public void writeTo(Writer out) throws IOException {
+            XmlStringBuilder header = openElement();
+            List<CharSequence> payload = mPadding.isContentDependent() ? payloadXML() : null;
+            int padding = paddingLength(header, payload);
+
+            header.write(out, null);
+            if (padding >= 0) {
+                out.write("<rpad>");
+                PaddingSource.append(out, padding);
+                out.write("</rpad>");
+            }
+            out.write(OPEN_PAYLOAD);
+            if (payload != null) {
+                for (CharSequence xml : payload)
+                    out.append(xml);
+            }
+            else {
+                for (NamedElement payloadElement : mPayloadExtensions) {
+                    if (payloadElement instanceof BitsOfBinary &&
+                            ((BitsOfBinary) payloadElement).isStreaming()) {
+                        // read and encoded in chunks
+                        ((BitsOfBinary) payloadElement).writeTo(out);
+                        continue;
+                    }
+
+                    CharSequence xml = payloadElement.toXML(NAMESPACE);
+                    if (xml instanceof XmlStringBuilder)
+                        ((XmlStringBuilder) xml).write(out, NAMESPACE);
+                    else
+                        out.append(xml);
+                }
+            }
+            out.write(CLOSE_ELEMENT);
+        }
+
+        /**
+         * Writes the element encoded in UTF-8 to the given stream, e.g. an
+         * encryption stream. The stream is flushed but not closed.
+         * @see #writeTo(Writer)
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writeTo(writer);
+            writer.flush();
+        }
+
+        /** Everything up to the padding. */
+        private XmlStringBuilder openElement() {
             XmlStringBuilder buf = new XmlStringBuilder(this);
             buf.rightAngleBracket();
             for (String jid : mJIDs)
                 buf.halfOpenElement("to").attribute("jid", jid).closeEmptyElement();
             buf.halfOpenElement("time")
-                    .attribute("stamp", XmppDateTime.formatXEP0082Date(mStamp))
+                    .attribute("stamp", TimestampCodec.format(mStamp.getTime()))
                     .closeEmptyElement();
-            if (mRPadLength > 0)
-                buf.openElement("rpad")
-                        .append(StringUtils.randomString(mRPadLength))
-                        .closeElement("rpad");
-            buf.openElement("payload");
-            for (NamedElement payloadElements : mPayloadExtensions)
-                buf.append(payloadElements.toXML(NAMESPACE));
-            buf.closeElement("payload")
-                    .closeElement(ELEMENT_NAME);
             return buf;
         }
 
+        /** Serialized payload extensions, needed up front to size the padding. */
+        private List<CharSequence> payloadXML() {
+            List<CharSequence> payload = new ArrayList<>(mPayloadExtensions.size());
+            for (NamedElement payloadElement : mPayloadExtensions)
+                payload.add(payloadElement.toXML(NAMESPACE).toString());
+            return payload;
+        }
+
+        /**
+         * Returns the number of padding characters, or -1 for no rpad element
+         * at all. Content dependent policies are given the UTF-8 encoded
+         * length of the whole element, including the rpad tags (padding
+         * characters are all ASCII).
+         * @param payload serialized payload, only for content dependent policies
+         */
+        private int paddingLength(XmlStringBuilder header, List<CharSequence> payload) {
+            if (payload == null) {
+                int padding = mPadding.getPaddingLength(0);
+                return padding > 0 ? padding : -1;
+            }
+
+            int length = UTF8Utils.encodedLength(header.toString()) +
+                OPEN_PAYLOAD.length() + CLOSE_ELEMENT.length();
+            for (CharSequence xml : payload)
+                length += UTF8Utils.encodedLength(xml);
+
+            if (mPadding.getPaddingLength(length) == 0)
+                return -1;
+            // an empty rpad might be needed to fill the bucket
+            return mPadding.getPaddingLength(length + RPAD_TAGS_LENGTH);
+        }
+
         public static SignCryptElement parse(String decryptedPayload) throws Exception {
+            return parse(decryptedPayload, false);
+        }
+
+        /**
+         * Parses a signcrypt element.
+         * @param lazy if true, payload extensions are located but not parsed
+         *             until they are accessed through {@link #getPayload()}, so
+         *             that addressing and time stamp can be checked cheaply.
+         *             Errors in the payload extensions are then reported on
+         *             access, by an {@link IllegalStateException}.
+         */
+        public static SignCryptElement parse(String decryptedPayload, boolean lazy) throws Exception {
 
             List<String> jids = new ArrayList<>();
             Date date = null;
             List<ExtensionElement> content = new ArrayList<>();
 
+            LazyExtensionList lazyContent = null;
+            if (lazy) {
+                lazyContent = LazyExtensionList.scan(decryptedPayload, "payload");
+                // leave payload extensions out of the parse
+                if (lazyContent != null)
+                    decryptedPayload = lazyContent.stripContent();
+            }
+
             XmlPullParser parser = PacketParserUtils.getParserFor(decryptedPayload);
             if (!ELEMENT_NAME.equals(parser.getName()) || !NAMESPACE.equals(parser.getNamespace()))
                 throw new ParseException("not a signcrypt element", 0);
@@ -186,9 +355,11 @@ public class OpenPGPExtension implements ExtensionElement {
                             break;
                         case "time":
                             String stamp = parser.getAttributeValue(null, "stamp");
-                            date = XmppDateTime.parseXEP0082Date(stamp);
+                            date = TimestampCodec.parseDate(stamp);
                             break;
                         case "payload":
+                            if (lazyContent != null && parser.getDepth() == initialDepth + 1)
+                                lazyContent.setNamespaces(parser);
                             int payloadDepth = parser.getDepth();
                             boolean in_payload = true;
                             while (in_payload) {
@@ -221,7 +392,9 @@ public class OpenPGPExtension implements ExtensionElement {
                 throw new ParseException("invalid signcrypt elment", 0);
             }
 
-            return new SignCryptElement(jids, date, -1, content);
+            if (lazyContent != null)
+                content = lazyContent;
+            return new SignCryptElement(jids, date, PaddingPolicy.NONE, content);
         }
     }
 }
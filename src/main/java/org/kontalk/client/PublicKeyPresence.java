@@ -23,7 +23,7 @@ import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.Base64;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -44,7 +44,7 @@ public class PublicKeyPresence implements ExtensionElement {
     private String mEncodedKey;
 
     public PublicKeyPresence(String keydata) {
-        this(keydata != null ? Base64.decode(keydata) : null, null);
+        this(decodeKey(keydata), null);
         mEncodedKey = keydata;
     }
 
@@ -53,7 +53,7 @@ public class PublicKeyPresence implements ExtensionElement {
     }
 
     public PublicKeyPresence(String keydata, String fingerprint) {
-        this(keydata != null ? Base64.decode(keydata) : null, fingerprint);
+        this(decodeKey(keydata), fingerprint);
         mEncodedKey = keydata;
     }
 
@@ -62,6 +62,18 @@ public class PublicKeyPresence implements ExtensionElement {
         mFingerprint = fingerprint;
     }
 
+    /** Returns null for missing or malformed key data. */
+    private static byte[] decodeKey(String keydata) {
+        if (keydata == null)
+            return null;
+        try {
+            return Base64.decode(keydata);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     @Override
     public String getElementName() {
         return ELEMENT_NAME;
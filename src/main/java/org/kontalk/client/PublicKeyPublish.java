@@ -23,7 +23,7 @@ import java.io.IOException;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.provider.IQProvider;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.Base64;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -87,8 +87,15 @@ public class PublicKeyPublish extends IQ {
                 }
             }
 
-            if (key != null)
-                return new PublicKeyPublish(IQ.Type.result, Base64.decode(key));
+            if (key != null) {
+                try {
+                    return new PublicKeyPublish(IQ.Type.result, Base64.decode(key));
+                }
+                catch (IllegalArgumentException e) {
+                    // malformed key
+                    return null;
+                }
+            }
             else
                 return null;
         }
@@ -21,7 +21,7 @@ package org.kontalk.client;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.provider.IQProvider;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.kontalk.util.Base64;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -109,8 +109,12 @@ public class VCard4 extends IQ {
 
             VCard4 iq = new VCard4();
             if (uri != null && uri.startsWith(KEY_PREFIX)) {
-                byte[] keydata = Base64.decode(uri.substring(KEY_PREFIX.length()));
-                iq.setPGPKey(keydata);
+                try {
+                    iq.setPGPKey(Base64.decode(uri, KEY_PREFIX.length(), uri.length()));
+                }
+                catch (IllegalArgumentException e) {
+                    // malformed key, ignore it
+                }
             }
 
             return iq;
@@ -0,0 +1,122 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * <p>Base64 utilities, backed by a pluggable {@link Base64Codec}.</p>
+ * <p>
+ * {@link DefaultBase64Codec} is used unless another codec is set with
+ * {@link #setCodec}, e.g. one backed by a platform implementation.
+ * Besides the usual String conversions, text can be encoded into any
+ * {@link Appendable} and decoded from any {@link CharSequence} into a
+ * caller-provided buffer, without intermediate copies.
+ * </p>
+ * @author Daniele Ricci
+ */
+public final class Base64 {
+
+    private static volatile Base64Codec sCodec = DefaultBase64Codec.getInstance();
+
+    private Base64() {
+        throw new AssertionError();
+    }
+
+    public static Base64Codec getCodec() {
+        return sCodec;
+    }
+
+    public static void setCodec(Base64Codec codec) {
+        if (codec == null)
+            throw new NullPointerException("codec");
+        sCodec = codec;
+    }
+
+    public static String encodeToString(byte[] data) {
+        return encodeToString(data, 0, data.length);
+    }
+
+    public static String encodeToString(byte[] data, int offset, int length) {
+        Base64Codec codec = sCodec;
+        if (codec == DefaultBase64Codec.getInstance())
+            return Base64Platform.encodeToString(data, offset, length);
+        return encodeToString(codec, data, offset, length);
+    }
+
+    static String encodeToString(Base64Codec codec, byte[] data, int offset, int length) {
+        char[] out = new char[codec.encodedLength(length)];
+        int count = codec.encode(data, offset, length, out, 0);
+        return new String(out, 0, count);
+    }
+
+    public static void encode(byte[] data, int offset, int length, Appendable out) throws IOException {
+        sCodec.encode(data, offset, length, out);
+    }
+
+    /** @throws IllegalArgumentException if the text is not valid Base64 */
+    public static byte[] decode(CharSequence text) {
+        return decode(text, 0, text.length());
+    }
+
+    /** @throws IllegalArgumentException if the text is not valid Base64 */
+    public static byte[] decode(CharSequence text, int start, int end) {
+        Base64Codec codec = sCodec;
+        if (codec == DefaultBase64Codec.getInstance())
+            return Base64Platform.decode(text, start, end);
+        return decode(codec, text, start, end);
+    }
+
+    static byte[] decode(Base64Codec codec, CharSequence text, int start, int end) {
+        byte[] out = new byte[maxDecodedLength(text, start, end)];
+        int count = codec.decode(text, start, end, out, 0);
+        // only happens with whitespace
+        return count < out.length ? Arrays.copyOf(out, count) : out;
+    }
+
+    /**
+     * Decodes into the given buffer, advancing its position.
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the text is not valid Base64
+     */
+    public static int decode(CharSequence text, ByteBuffer out) {
+        return sCodec.decode(text, 0, text.length(), out);
+    }
+
+    /**
+     * Returns an upper bound of the decoded size without looking at the whole
+     * text. It is exact if the text contains no whitespace.
+     */
+    private static int maxDecodedLength(CharSequence text, int start, int end) {
+        int padding = 0;
+        while (end - padding > start && padding < 2 && text.charAt(end - padding - 1) == '=')
+            padding++;
+        int chars = end - start - padding;
+        return chars / 4 * 3 + chars % 4 * 3 / 4;
+    }
+
+    /** @see Base64Codec#decodedLength */
+    public static int decodedLength(CharSequence text) {
+        return sCodec.decodedLength(text, 0, text.length());
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Base64 codec (RFC 4648, standard alphabet, padded, no line breaks).
+ * Implementations must be thread-safe.
+ * @author Daniele Ricci
+ * @see Base64#setCodec(Base64Codec)
+ */
+public interface Base64Codec {
+
+    /** Returns the number of characters needed to encode the given number of bytes. */
+    int encodedLength(int length);
+
+    /**
+     * Encodes bytes into the given array, which must have room for
+     * {@link #encodedLength} characters.
+     * @return the number of characters written
+     */
+    int encode(byte[] src, int offset, int length, char[] dst, int dstOffset);
+
+    /** Encodes bytes, appending the result to the given output. */
+    void encode(byte[] src, int offset, int length, Appendable out) throws IOException;
+
+    /**
+     * Returns the exact number of bytes the given Base64 text decodes to.
+     * Whitespace is ignored.
+     * @throws IllegalArgumentException if the text is not valid Base64
+     */
+    int decodedLength(CharSequence src, int start, int end);
+
+    /**
+     * Decodes Base64 text into the given array, which must have room for
+     * {@link #decodedLength} bytes. Whitespace is ignored.
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the text is not valid Base64
+     */
+    int decode(CharSequence src, int start, int end, byte[] dst, int dstOffset);
+
+    /**
+     * Decodes Base64 text into the given buffer, advancing its position.
+     * Whitespace is ignored.
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the text is not valid Base64
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    int decode(CharSequence src, int start, int end, ByteBuffer dst);
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+
+/**
+ * String conversions of {@link Base64} when the default codec is in use.
+ * This is the Java 7 version; the Java 9 one in the multi-release jar
+ * delegates to {@code java.util.Base64}.
+ * @author Daniele Ricci
+ */
+final class Base64Platform {
+
+    private Base64Platform() {
+        throw new AssertionError();
+    }
+
+    static String encodeToString(byte[] data, int offset, int length) {
+        return Base64.encodeToString(DefaultBase64Codec.getInstance(), data, offset, length);
+    }
+
+    static byte[] decode(CharSequence text, int start, int end) {
+        return Base64.decode(DefaultBase64Codec.getInstance(), text, start, end);
+    }
+
+}
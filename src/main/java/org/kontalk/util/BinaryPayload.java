@@ -0,0 +1,284 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * <p>Binary data carried as Base64 text in a stanza.</p>
+ * <p>
+ * A payload keeps the form it was created from (raw bytes or Base64 text)
+ * and derives the other one the first time it's asked for. Conversion
+ * happens at most once, even with concurrent callers, so a stanza that is
+ * only forwarded or stored never gets decoded at all.
+ * </p>
+ * <p>
+ * <i>Direct</i> payloads keep the raw data in a direct {@link ByteBuffer}
+ * instead of a byte array: {@link #getBuffer} is a zero-copy view of it,
+ * while {@link #getBytes} creates a new copy on every call. A direct
+ * payload created from Base64 text keeps the text until the raw data is
+ * first needed; it is then decoded into the buffer and the text is dropped.
+ * The Base64 text is cached once encoded, like for heap payloads, until
+ * {@link #release}.
+ * </p>
+ * <p>
+ * {@link #release} frees the direct memory right away where the platform
+ * allows it (see {@link #isFreeable}), otherwise it is given back once the
+ * buffer is garbage collected. Either way, views obtained from
+ * {@link #getBuffer} must not be used after the payload has been released.
+ * </p>
+ * <p>
+ * Payloads are immutable: the array given to {@link #fromBytes} and the one
+ * returned by {@link #getBytes} are shared, not copied, and must not be
+ * modified.
+ * </p>
+ * @author Daniele Ricci
+ */
+public final class BinaryPayload {
+
+    /** Bytes encoded at a time from a direct buffer. */
+    private static final int ENCODE_CHUNK_SIZE = 3 * 4096;
+
+    private volatile byte[] mBytes;
+    private volatile String mBase64;
+    /** Accessed only while holding the lock, since release() may free it. */
+    private ByteBuffer mDirect;
+    /** True if the raw data is kept in a direct buffer. */
+    private final boolean mDirectMode;
+    /** True if mDirect was allocated by this payload, and so can be freed. */
+    private boolean mOwned;
+    private volatile boolean mReleased;
+
+    private BinaryPayload(byte[] bytes, String base64, ByteBuffer direct, boolean directMode, boolean owned) {
+        mBytes = bytes;
+        mBase64 = base64;
+        mDirect = direct;
+        mDirectMode = directMode;
+        mOwned = owned;
+    }
+
+    public static BinaryPayload fromBytes(byte[] data) {
+        if (data == null)
+            throw new NullPointerException("data");
+        return new BinaryPayload(data, null, null, false, false);
+    }
+
+    public static BinaryPayload fromBase64(String encoded) {
+        if (encoded == null)
+            throw new NullPointerException("encoded");
+        return new BinaryPayload(null, encoded, null, false, false);
+    }
+
+    /**
+     * Creates a payload from the given Base64 text. If direct is true, the
+     * text is decoded into a direct buffer the first time the raw data is
+     * needed, so invalid text is only reported then.
+     */
+    public static BinaryPayload fromBase64(String encoded, boolean direct) {
+        if (!direct)
+            return fromBase64(encoded);
+
+        if (encoded == null)
+            throw new NullPointerException("encoded");
+        return new BinaryPayload(null, encoded, null, true, false);
+    }
+
+    /** Creates a direct payload with a copy of the given data. */
+    public static BinaryPayload directFromBytes(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return new BinaryPayload(null, null, buffer, true, true);
+    }
+
+    /**
+     * Creates a direct payload decoding the given Base64 text right away
+     * straight into the buffer, without an intermediate copy of the data.
+     * @throws IllegalArgumentException if the text is not valid Base64
+     */
+    public static BinaryPayload directFromBase64(String encoded) {
+        return new BinaryPayload(null, null, decodeDirect(encoded), true, true);
+    }
+
+    /**
+     * Creates a direct payload with the remaining contents of the given
+     * buffer. The buffer is not copied and must not be modified afterwards.
+     * It is not freed by {@link #release}, since it's not owned by the
+     * payload.
+     */
+    public static BinaryPayload directFromBuffer(ByteBuffer buffer) {
+        if (!buffer.isDirect())
+            throw new IllegalArgumentException("not a direct buffer");
+        return new BinaryPayload(null, null, buffer.slice(), true, false);
+    }
+
+    /** Returns true if the raw data is (or will be) kept in a direct buffer. */
+    public boolean isDirect() {
+        return mDirectMode && !mReleased;
+    }
+
+    /** Returns the size of the raw data, decoding it if needed. */
+    public int length() {
+        if (mDirectMode) {
+            synchronized (this) {
+                return direct().remaining();
+            }
+        }
+        return getBytes().length;
+    }
+
+    /**
+     * Returns the raw data, decoding it if needed. A direct payload returns
+     * a new copy of its data on every call.
+     */
+    public byte[] getBytes() {
+        byte[] bytes = mBytes;
+        if (bytes != null)
+            return bytes;
+
+        synchronized (this) {
+            if (mDirectMode) {
+                ByteBuffer direct = direct();
+                bytes = new byte[direct.remaining()];
+                direct.duplicate().get(bytes);
+                return bytes;
+            }
+
+            checkReleased();
+            bytes = mBytes;
+            if (bytes == null)
+                mBytes = bytes = Base64.decode(mBase64);
+        }
+        return bytes;
+    }
+
+    /** Returns the Base64 representation of the data, encoding it if needed. */
+    public String getBase64() {
+        String base64 = mBase64;
+        if (base64 != null)
+            return base64;
+
+        synchronized (this) {
+            checkReleased();
+            base64 = mBase64;
+            if (base64 == null)
+                mBase64 = base64 = mDirectMode ? encode(mDirect) : Base64.encodeToString(mBytes);
+        }
+        return base64;
+    }
+
+    /**
+     * Returns a read-only view of the raw data, decoding it if needed.
+     * Views of a direct payload share its buffer without copying, and must
+     * not be used after {@link #release}.
+     */
+    public ByteBuffer getBuffer() {
+        if (mDirectMode) {
+            synchronized (this) {
+                return direct().asReadOnlyBuffer();
+            }
+        }
+        return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer();
+    }
+
+    /** Returns true if the raw data is available without decoding. */
+    public boolean hasBytes() {
+        if (mBytes != null)
+            return true;
+        synchronized (this) {
+            return mDirect != null;
+        }
+    }
+
+    /** Returns true if the Base64 text is available without encoding. */
+    public boolean hasBase64() {
+        return mBase64 != null;
+    }
+
+    /**
+     * Drops all references to the data, making any further access fail.
+     * Direct memory allocated by the payload is freed right away if the
+     * platform allows it; views obtained from {@link #getBuffer} must not
+     * be used anymore.
+     */
+    public synchronized void release() {
+        if (mOwned && mDirect != null)
+            BufferPlatform.free(mDirect);
+
+        mReleased = true;
+        mBytes = null;
+        mBase64 = null;
+        mDirect = null;
+        mOwned = false;
+    }
+
+    public boolean isReleased() {
+        return mReleased;
+    }
+
+    /** Returns true if {@link #release} can free direct memory right away on this platform. */
+    public static boolean isFreeable() {
+        return BufferPlatform.isSupported();
+    }
+
+    private void checkReleased() {
+        if (mReleased)
+            throw new IllegalStateException("payload has been released");
+    }
+
+    /** Returns the direct buffer, decoding the text into it if needed. Must hold the lock. */
+    private ByteBuffer direct() {
+        checkReleased();
+        if (mDirect == null) {
+            mDirect = decodeDirect(mBase64);
+            mOwned = true;
+            // the raw data is what's kept from now on
+            mBase64 = null;
+        }
+        return mDirect;
+    }
+
+    private static ByteBuffer decodeDirect(String encoded) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Base64.decodedLength(encoded));
+        try {
+            Base64.decode(encoded, buffer);
+        }
+        catch (IllegalArgumentException e) {
+            BufferPlatform.free(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String encode(ByteBuffer data) {
+        ByteBuffer src = data.duplicate();
+        char[] out = new char[Base64.getCodec().encodedLength(src.remaining())];
+        byte[] chunk = new byte[Math.min(src.remaining(), ENCODE_CHUNK_SIZE)];
+        int pos = 0;
+        while (src.hasRemaining()) {
+            int count = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, count);
+            pos += Base64.getCodec().encode(chunk, 0, count, out, pos);
+        }
+        return new String(out, 0, pos);
+    }
+
+}
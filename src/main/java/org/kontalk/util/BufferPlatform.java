@@ -0,0 +1,101 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Explicit release of direct buffers.
+ * This is the Java 7 version, going through the buffer cleaner of Java 7
+ * and 8; the Java 9 one in the multi-release jar uses
+ * {@code Unsafe.invokeCleaner}. Elsewhere (e.g. Android) buffers are left
+ * to the garbage collector.
+ * @author Daniele Ricci
+ */
+final class BufferPlatform {
+
+    /** DirectByteBuffer.cleaner() and Cleaner.clean(), if available. */
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Method cleaner = null;
+        Method clean = null;
+        // these are not accessible on Java 9 or later, where the Java 9
+        // version is used anyway when running from the jar
+        if (!hasModules()) {
+            try {
+                cleaner = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                clean = cleaner.getReturnType().getMethod("clean");
+                clean.setAccessible(true);
+            }
+            catch (Exception e) {
+                cleaner = null;
+                clean = null;
+            }
+        }
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private BufferPlatform() {
+        throw new AssertionError();
+    }
+
+    static boolean isSupported() {
+        return CLEAN != null;
+    }
+
+    /**
+     * Frees the memory of the given direct buffer right away, if possible.
+     * The buffer, and any view of it, must not be used anymore.
+     * @return false if the buffer is left to the garbage collector
+     */
+    static boolean free(ByteBuffer buffer) {
+        if (CLEAN == null || !buffer.isDirect())
+            return false;
+
+        try {
+            // views of another buffer have no cleaner
+            Object cleaner = CLEANER.invoke(buffer);
+            if (cleaner == null)
+                return false;
+
+            CLEAN.invoke(cleaner);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean hasModules() {
+        try {
+            Class.forName("java.lang.Module");
+            return true;
+        }
+        catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+}
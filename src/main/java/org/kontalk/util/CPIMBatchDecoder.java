@@ -0,0 +1,205 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jivesoftware.smack.packet.Message;
+
+
+/**
+ * <p>Parallel decoder for batches of decrypted Message/CPIM payloads.</p>
+ * <p>
+ * Each payload is parsed with {@link CPIMMessage#parse(byte[])}; when its
+ * body is a wrapped XMPP stanza ({@link XMPPParserUtils#XML_XMPP_TYPE}) the
+ * message stanza is parsed too. The batch is split in chunks that run on the
+ * given executor (a {@link java.util.concurrent.ForkJoinPool} will do as
+ * well). Results are returned in the same order as the payloads, and a
+ * failing payload does not affect the others.
+ * </p>
+ * @author Daniele Ricci
+ */
+public class CPIMBatchDecoder {
+
+    /** Default number of payloads decoded by a single task. */
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+
+    /** Outcome of decoding a single payload. */
+    public static final class Result {
+        private final CPIMMessage mMessage;
+        private final Message mStanza;
+        private final Exception mError;
+
+        Result(CPIMMessage message, Message stanza, Exception error) {
+            mMessage = message;
+            mStanza = stanza;
+            mError = error;
+        }
+
+        /** Returns true if the payload was decoded without errors. */
+        public boolean isSuccessful() {
+            return mError == null;
+        }
+
+        /** Returns the parsed Message/CPIM, or null if parsing failed. */
+        public CPIMMessage getMessage() {
+            return mMessage;
+        }
+
+        /**
+         * Returns the embedded message stanza, or null if the body is not a
+         * wrapped XMPP stanza or it could not be parsed.
+         */
+        public Message getStanza() {
+            return mStanza;
+        }
+
+        /** Returns the error that occurred while decoding, if any. */
+        public Exception getError() {
+            return mError;
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final int mChunkSize;
+
+    /**
+     * Creates a decoder working on the caller thread only.
+     */
+    public CPIMBatchDecoder() {
+        this(null);
+    }
+
+    public CPIMBatchDecoder(ExecutorService executor) {
+        this(executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param executor the executor to run on, or null to use the caller thread
+     * @param chunkSize number of payloads decoded by a single task
+     */
+    public CPIMBatchDecoder(ExecutorService executor, int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunk size must be positive");
+
+        mExecutor = executor;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Decodes the given payloads and waits for all of them.
+     * @return one result per payload, in the same order
+     */
+    public List<Result> decode(List<byte[]> payloads) throws InterruptedException {
+        final byte[][] input = payloads.toArray(new byte[payloads.size()][]);
+        final Result[] results = new Result[input.length];
+
+        if (mExecutor == null || input.length <= mChunkSize) {
+            decode(input, results, 0, input.length);
+        }
+        else {
+            List<Callable<Void>> tasks = new ArrayList<>(input.length / mChunkSize + 1);
+            for (int start = 0; start < input.length; start += mChunkSize) {
+                final int from = start;
+                final int to = Math.min(start + mChunkSize, input.length);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        decode(input, results, from, to);
+                        return null;
+                    }
+                });
+            }
+
+            // results are stored by index, only failed tasks need handling
+            List<Future<Void>> futures = mExecutor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                Exception error = null;
+                try {
+                    futures.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    error = e.getCause() instanceof Exception ?
+                        (Exception) e.getCause() : e;
+                }
+                catch (CancellationException e) {
+                    error = e;
+                }
+
+                if (error != null) {
+                    int from = i * mChunkSize;
+                    int to = Math.min(from + mChunkSize, input.length);
+                    for (int j = from; j < to; j++) {
+                        if (results[j] == null)
+                            results[j] = new Result(null, null, error);
+                    }
+                }
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /** Decodes a single payload. */
+    public static Result decode(byte[] payload) {
+        CPIMMessage message;
+        try {
+            message = CPIMMessage.parse(payload);
+        }
+        catch (Exception e) {
+            return new Result(null, null, e);
+        }
+
+        Message stanza = null;
+        if (XMPPParserUtils.XML_XMPP_TYPE.equalsIgnoreCase(message.getMime())) {
+            try {
+                stanza = parseStanza(message);
+            }
+            catch (Exception e) {
+                return new Result(message, null, e);
+            }
+        }
+
+        return new Result(message, stanza, null);
+    }
+
+    private static Message parseStanza(CPIMMessage message) throws Exception {
+        // parse the encoded body directly, no need to decode it to a String
+        ByteBuffer body = message.getRawBody();
+        if (body != null && body.hasArray()) {
+            return XMPPParserUtils.parseMessageStanza(body.array(),
+                body.arrayOffset() + body.position(), body.remaining());
+        }
+        return XMPPParserUtils.parseMessageStanza(message.getBody().toString());
+    }
+
+    private static void decode(byte[][] input, Result[] results, int from, int to) {
+        for (int i = from; i < to; i++)
+            results[i] = decode(input[i]);
+    }
+
+}
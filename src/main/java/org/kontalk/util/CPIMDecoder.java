@@ -0,0 +1,167 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Date;
+
+
+/**
+ * <p>Incremental Message/CPIM decoder.</p>
+ * <p>
+ * The decoder is fed with chunks of an UTF-8 encoded Message/CPIM document
+ * as they become available. Once all headers have been read, the
+ * {@link Listener} is notified with the header values and then receives the
+ * body in chunks, without it ever being buffered by the decoder. Header rules
+ * are the same as {@link CPIMMessage#parse(String)}.
+ * </p>
+ * <p>
+ * Instances are not thread-safe and can be used for one document only.
+ * </p>
+ * @author Daniele Ricci
+ */
+public class CPIMDecoder {
+
+    /** Maximum length of a single header line. */
+    public static final int MAX_HEADER_LENGTH = 1024 * 1024;
+
+    /** Receives the decoded document. */
+    public interface Listener {
+        /** Called once, when all headers have been parsed. */
+        void onHeaders(String from, String[] to, Date date, String mime);
+
+        /**
+         * Called for each chunk of the body. The buffer is valid only for the
+         * duration of the call.
+         */
+        void onBody(ByteBuffer chunk);
+
+        /** Called when the whole document has been decoded. */
+        void onEnd();
+    }
+
+    private static final int STATE_HEADERS = 0;
+    private static final int STATE_BODY = 1;
+    private static final int STATE_DONE = 2;
+
+    private final Listener mListener;
+    private final CPIMMessage.HeaderCollector mHeaders = new CPIMMessage.HeaderCollector();
+
+    private int mState = STATE_HEADERS;
+    private int mSection = CPIMMessage.SECTION_CPIM;
+
+    /** Current header line. */
+    private byte[] mLine = new byte[256];
+    private int mLineLength;
+    /** True if the last line ended with CR: a LF following it is part of the terminator. */
+    private boolean mSkipLF;
+
+    public CPIMDecoder(Listener listener) {
+        mListener = listener;
+    }
+
+    public void decode(byte[] data) throws ParseException {
+        decode(data, 0, data.length);
+    }
+
+    public void decode(byte[] data, int offset, int length) throws ParseException {
+        decode(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /** Decodes all the remaining bytes of the given buffer. */
+    public void decode(ByteBuffer data) throws ParseException {
+        if (mState == STATE_DONE)
+            throw new IllegalStateException("decoder already finished");
+
+        while (data.hasRemaining()) {
+            if (mSkipLF) {
+                mSkipLF = false;
+                if (data.get(data.position()) == '\n') {
+                    data.get();
+                    continue;
+                }
+            }
+
+            if (mState == STATE_BODY) {
+                mListener.onBody(data.slice());
+                data.position(data.limit());
+                break;
+            }
+
+            byte b = data.get();
+            if (b == '\r' || b == '\n') {
+                mSkipLF = (b == '\r');
+                endLine();
+            }
+            else {
+                appendLine(b);
+            }
+        }
+    }
+
+    /** Signals the end of the document. */
+    public void finish() throws ParseException {
+        if (mState == STATE_DONE)
+            throw new IllegalStateException("decoder already finished");
+
+        if (mState == STATE_HEADERS) {
+            // a truncated last line is still a line
+            if (mLineLength > 0)
+                endLine();
+            // any missing section is empty
+            while (mState == STATE_HEADERS)
+                endLine();
+        }
+
+        mState = STATE_DONE;
+        mListener.onEnd();
+    }
+
+    private void appendLine(byte b) throws ParseException {
+        if (mLineLength == mLine.length) {
+            if (mLineLength >= MAX_HEADER_LENGTH)
+                throw new ParseException("Header line too long", mLineLength);
+
+            byte[] line = new byte[Math.min(mLine.length * 2, MAX_HEADER_LENGTH)];
+            System.arraycopy(mLine, 0, line, 0, mLineLength);
+            mLine = line;
+        }
+        mLine[mLineLength++] = b;
+    }
+
+    private void endLine() throws ParseException {
+        CPIMMessage.CPIMByteParser p = new CPIMMessage.CPIMByteParser(
+            ByteBuffer.wrap(mLine, 0, mLineLength));
+        mLineLength = 0;
+
+        if (p.nextHeader()) {
+            int header = p.headerCode();
+            if (mHeaders.wants(mSection, header))
+                mHeaders.header(mSection, header, p.headerValue());
+        }
+        else if (++mSection > CPIMMessage.SECTION_CONTENT) {
+            CPIMMessage headers = mHeaders.build(null);
+            mState = STATE_BODY;
+            mListener.onHeaders(headers.getFrom(), headers.getTo(),
+                headers.getDate(), headers.getMime());
+        }
+    }
+
+}
@@ -20,15 +20,13 @@ package org.kontalk.util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
-import java.text.DateFormat;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.TimeZone;
-
-import org.jxmpp.util.XmppDateTime;
 
 
 /**
@@ -40,54 +38,62 @@ import org.jxmpp.util.XmppDateTime;
  * </p>
  * <p>
  * You can use {@link #parse(String)} for a very basic Message/CPIM parser.
+ * If the data is still in its encoded form, {@link #parse(byte[])} and
+ * {@link #parse(ByteBuffer)} will parse it without decoding it first.
+ * </p>
+ * <p>
+ * Bodies can be given either as text or as bytes: bytes are written as they
+ * are, without any charset conversion. The byte parsers keep the body of
+ * non-text MIME types as bytes too. Such binary bodies (bytes with a non-text
+ * MIME type) have no charset parameter in their Content-type header.
  * </p>
  * @author Daniele Ricci
  */
 public class CPIMMessage {
 
-    private static final DateTimeNoMillisFormatter dateTimeNoMillisFormatter = new DateTimeNoMillisFormatter();
-
-    private static class DateTimeNoMillisFormatter {
+    /** Charset used for byte encoding. */
+    public static final String CHARSET = "utf-8";
 
-        private final String FORMAT_STRING = "yyyy-MM-dd'T'HH:mm:ssZ";
-        private final DateFormat FORMATTER;
+    private static final Charset UTF8 = Charset.forName(CHARSET);
 
-        private DateTimeNoMillisFormatter() {
-            FORMATTER = new SimpleDateFormat(FORMAT_STRING);
-            FORMATTER.setTimeZone(TimeZone.getTimeZone("UTC"));
-        }
+    private static final int WRITE_BUFFER_SIZE = 8192;
 
-        private String format(Date date) {
-            String res;
-            synchronized (FORMATTER) {
-                res = FORMATTER.format(date);
-            }
-            res = convertRfc822TimezoneToXep82(res);
-            return res;
-        }
+    /** What a null text body is written as, like {@link StringBuilder#append(CharSequence)} does. */
+    private static final String NULL_BODY = "null";
 
-        private static String convertRfc822TimezoneToXep82(String dateString) {
-            int length = dateString.length();
-            String res = dateString.substring(0, length - 2);
-            res += ':';
-            res += dateString.substring(length - 2, length);
-            return res;
-        }
-    }
-
-    /** Charset used for byte encoding. */
-    public static final String CHARSET = "utf-8";
-
-    private static final String MIME_TYPE = "text/plain";
+    static final String MIME_TYPE = "text/plain";
     private static final String TYPE = "Message/CPIM";
 
+    /** Header sections, in the order they appear in a Message/CPIM document. */
+    static final int SECTION_CPIM = 0;
+    static final int SECTION_MESSAGE = 1;
+    static final int SECTION_CONTENT = 2;
+
+    /** Headers known to the parsers. */
+    static final int HEADER_OTHER = -1;
+    static final int HEADER_CONTENT_TYPE = 0;
+    static final int HEADER_FROM = 1;
+    static final int HEADER_TO = 2;
+    static final int HEADER_DATETIME = 3;
+
+    private static final String[] HEADER_NAMES = {
+        "Content-type",
+        "From",
+        "To",
+        "DateTime",
+    };
+
     private final String mFrom;
     private final String[] mTo;
     private final Date mDate;
     private final String mMime;
-    private final CharSequence mBody;
+    /** Message body, decoded from {@link #mRawBody} on first use if null. */
+    private volatile CharSequence mBody;
+    /** Encoded body, as given or parsed by {@link #parseLazy(ByteBuffer)}. */
+    private final ByteBuffer mRawBody;
 
-    private StringBuilder mBuf;
+    /** Generated header block (cached). */
+    private String mHeaders;
 
     /** Constructs a new plain text message. */
     public CPIMMessage(String from, String[] to, Date date, String body) {
@@ -95,11 +101,30 @@ public class CPIMMessage {
     }
 
     public CPIMMessage(String from, String[] to, Date date, String mime, CharSequence body) {
+        this(from, to, date, mime, body, null);
+    }
+
+    /** Constructs a new message with a binary body. */
+    public CPIMMessage(String from, String[] to, Date date, String mime, byte[] body) {
+        this(from, to, date, mime, ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Constructs a new message with a binary body, made of the remaining
+     * bytes of the given buffer. The buffer contents are not copied and must
+     * not be modified as long as the message is in use.
+     */
+    public CPIMMessage(String from, String[] to, Date date, String mime, ByteBuffer body) {
+        this(from, to, date, mime, null, body.slice());
+    }
+
+    private CPIMMessage(String from, String[] to, Date date, String mime, CharSequence body, ByteBuffer rawBody) {
         mFrom = from;
         mTo = to;
         mDate = date;
         mMime = mime;
         mBody = body;
+        mRawBody = rawBody;
     }
 
     public String getFrom() {
@@ -118,109 +143,343 @@ public class CPIMMessage {
         return mMime;
     }
 
+    /**
+     * Returns the message body. A binary body, or a body parsed with
+     * {@link #parseLazy(ByteBuffer)}, is decoded as UTF-8 on the first call.
+     */
     public CharSequence getBody() {
-        return mBody;
+        CharSequence body = mBody;
+        if (body == null && mRawBody != null) {
+            body = decode(mRawBody);
+            mBody = body;
+        }
+        return body;
     }
 
-    @Override
-    public String toString() {
-        if (mBuf == null) {
+    /**
+     * Returns the encoded message body as a read-only buffer. A binary body,
+     * or a body parsed with {@link #parseLazy(ByteBuffer)}, is returned as is;
+     * a text body is encoded to UTF-8.
+     */
+    public ByteBuffer getBodyBuffer() {
+        if (mRawBody != null)
+            return mRawBody.asReadOnlyBuffer();
+
+        CharSequence body = mBody;
+        return body != null ? UTF8.encode(body.toString()).asReadOnlyBuffer() : null;
+    }
+
+    /** Returns the body bytes without copying, or null for a text body. */
+    ByteBuffer getRawBody() {
+        return mRawBody;
+    }
+
+    /** Returns true if the body is held as bytes. */
+    public boolean isBinary() {
+        return mRawBody != null;
+    }
+
+    /** Returns the header block, everything up to the body. */
+    private String getHeaders() {
+        if (mHeaders == null) {
+            StringBuilder buf = appendHeaderPrefix(new StringBuilder(), mFrom, mTo);
             // format to XEP-0082 date without millieconds for clients using Smack < 4.2.0
-            String date = dateTimeNoMillisFormatter.format(mDate);
+            TimestampCodec.appendTo(buf, mDate.getTime(), false);
+            appendHeaderSuffix(buf, mMime, !(mRawBody != null && !isTextType(mMime)));
+            mHeaders = buf.toString();
+        }
 
-            StringBuilder to = new StringBuilder();
-            for(String item : mTo){
-                if (to.length() > 0)
-                    to.append("; ");
-                to.append(item);
-            }
+        return mHeaders;
+    }
+
+    /** Appends the fixed headers preceding the DateTime value. */
+    static StringBuilder appendHeaderPrefix(StringBuilder buf, String from, String[] to) {
+        buf.append("Content-type: ")
+            .append(TYPE)
+            .append("\n\nFrom: ")
+            .append(from)
+            .append("\nTo: ");
+
+        for (int i = 0; i < to.length; i++) {
+            if (i > 0)
+                buf.append("; ");
+            buf.append(to[i]);
+        }
+
+        return buf.append("\nDateTime: ");
+    }
 
-            mBuf = new StringBuilder("Content-type: ")
-                .append(TYPE)
-                .append("\n\nFrom: ")
-                .append(mFrom)
-                .append("\nTo: ")
-                .append(to.toString())
-                .append("\nDateTime: ")
-                .append(date)
-                .append("\n\nContent-type: ")
-                .append(mMime)
-                .append("; charset=")
-                .append(CHARSET)
-                .append("\n\n")
-                .append(mBody);
+    /**
+     * Appends the fixed headers following the DateTime value.
+     * @param charset false to leave out the charset parameter, for binary bodies
+     */
+    static StringBuilder appendHeaderSuffix(StringBuilder buf, String mime, boolean charset) {
+        buf.append("\n\nContent-type: ")
+            .append(mime);
+        if (charset) {
+            buf.append("; charset=")
+                .append(CHARSET);
         }
+        return buf.append("\n\n");
+    }
+
+    /** Returns a scratch buffer size suitable for writing the given body. */
+    static int writeBufferSize(int bodyLength) {
+        return (int) Math.min(WRITE_BUFFER_SIZE, 64L + bodyLength * 3L);
+    }
+
+    @Override
+    public String toString() {
+        String headers = getHeaders();
+        CharSequence body = getBody();
+        if (body == null)
+            body = NULL_BODY;
+        return new StringBuilder(headers.length() + body.length())
+            .append(headers)
+            .append(body)
+            .toString();
+    }
+
+    /**
+     * Returns the exact length of the UTF-8 encoded message, as written by
+     * {@link #writeTo(OutputStream)} and {@link #toByteArray()}.
+     */
+    public int getEncodedLength() {
+        int length = UTF8Utils.encodedLength(getHeaders());
+        if (mRawBody != null)
+            return length + mRawBody.remaining();
+        else
+            return length + UTF8Utils.encodedLength(textBody());
+    }
+
+    /**
+     * Writes the UTF-8 encoded message to the given stream. A body parsed with
+     * {@link #parseLazy(ByteBuffer)} is written without being decoded.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[writeBufferSize(mRawBody != null ? mRawBody.remaining() : textBody().length())];
+        UTF8Utils.write(getHeaders(), out, buffer);
+        if (mRawBody != null)
+            UTF8Utils.write(mRawBody, out, buffer);
+        else
+            UTF8Utils.write(textBody(), out, buffer);
+    }
 
-        return mBuf.toString();
+    /**
+     * Writes the UTF-8 encoded message into the given buffer, starting at its
+     * position. Use {@link #getEncodedLength()} to size the buffer.
+     * @throws java.nio.BufferOverflowException if there is not enough room left
+     */
+    public void writeTo(ByteBuffer out) {
+        UTF8Utils.encode(getHeaders(), out);
+        if (mRawBody != null)
+            out.put(mRawBody.duplicate());
+        else
+            UTF8Utils.encode(textBody(), out);
+    }
+
+    private CharSequence textBody() {
+        return mBody != null ? mBody : NULL_BODY;
     }
 
     public byte[] toByteArray() throws UnsupportedEncodingException {
-        return toString().getBytes(CHARSET);
+        byte[] data = new byte[getEncodedLength()];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
     }
 
     /** A very bad CPIM parser. */
     public static CPIMMessage parse(String data) throws ParseException {
         CPIMParser p = new CPIMParser(data);
-
-        String from = null,
-            date = null,
-            type = null,
-            contents;
-        String[] to = null;
+        HeaderCollector headers = new HeaderCollector();
 
         // first pass: CPIM content type
-        CPIMParser.CPIMHeader h;
-        boolean typeOk = false;
-        while ((h = p.nextHeader()) != null && !typeOk) {
-            if ("Content-type".equalsIgnoreCase(h.name) && TYPE.equalsIgnoreCase(h.value))
-                typeOk = true;
+        // second pass: message headers
+        // third pass: message content type
+        for (int section = SECTION_CPIM; section <= SECTION_CONTENT; section++) {
+            CPIMParser.CPIMHeader h;
+            while ((h = p.nextHeader()) != null)
+                headers.header(section, headerCode(h.name), h.value);
         }
 
-        if (!typeOk)
-            throw new ParseException("Invalid content type", 0);
+        // fourth pass: message content
+        return headers.build(p.getData());
+    }
 
-        // second pass: message headers
-        while ((h = p.nextHeader()) != null) {
-            if ("From".equalsIgnoreCase(h.name)) {
-                from = h.value;
-            }
+    /**
+     * Parses an UTF-8 encoded Message/CPIM document.
+     * @see #parse(ByteBuffer)
+     */
+    public static CPIMMessage parse(byte[] data) throws ParseException {
+        return parse(data, 0, data.length);
+    }
 
-            else if ("To".equalsIgnoreCase(h.name)) {
-                to = h.value.split(";");
-                for (int i = 0; i < to.length; i++) {
-                    to[i] = to[i].trim();
-                }
-            }
+    /**
+     * Parses an UTF-8 encoded Message/CPIM document.
+     * @see #parse(ByteBuffer)
+     */
+    public static CPIMMessage parse(byte[] data, int offset, int length) throws ParseException {
+        return parse(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Parses the UTF-8 encoded Message/CPIM document between the position and
+     * the limit of the given buffer. Headers are scanned directly in the buffer
+     * and only the values used by this class are decoded. A text body is
+     * decoded once, straight from its slice; the body of other MIME types is
+     * copied as bytes. The buffer position is not modified.
+     */
+    public static CPIMMessage parse(ByteBuffer data) throws ParseException {
+        CPIMByteParser p = new CPIMByteParser(data);
+        HeaderCollector headers = parseHeaders(p);
+        ByteBuffer body = p.body();
+        if (isTextType(headers.getType()))
+            return headers.build(decode(body));
+
+        ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+        copy.put(body).flip();
+        return headers.build(null, copy);
+    }
 
-            else if ("DateTime".equalsIgnoreCase(h.name)) {
-                date = h.value;
+    /**
+     * Parses an UTF-8 encoded Message/CPIM document, leaving the body encoded.
+     * @see #parseLazy(ByteBuffer)
+     */
+    public static CPIMMessage parseLazy(byte[] data) throws ParseException {
+        return parseLazy(data, 0, data.length);
+    }
+
+    /**
+     * Parses an UTF-8 encoded Message/CPIM document, leaving the body encoded.
+     * @see #parseLazy(ByteBuffer)
+     */
+    public static CPIMMessage parseLazy(byte[] data, int offset, int length) throws ParseException {
+        return parseLazy(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Same as {@link #parse(ByteBuffer)}, but the body is not decoded: the
+     * returned message keeps a view of the body bytes in the given buffer and
+     * decodes it only when {@link #getBody()} is called. The buffer contents
+     * must not be modified as long as the message is in use.
+     */
+    public static CPIMMessage parseLazy(ByteBuffer data) throws ParseException {
+        CPIMByteParser p = new CPIMByteParser(data);
+        HeaderCollector headers = parseHeaders(p);
+        return headers.build(null, p.body());
+    }
+
+    private static HeaderCollector parseHeaders(CPIMByteParser p) {
+        HeaderCollector headers = new HeaderCollector();
+        for (int section = SECTION_CPIM; section <= SECTION_CONTENT; section++) {
+            while (p.nextHeader()) {
+                int header = p.headerCode();
+                if (headers.wants(section, header))
+                    headers.header(section, header, p.headerValue());
             }
         }
+        return headers;
+    }
 
-        // third pass: message content type
-        while ((h = p.nextHeader()) != null) {
-            if ("Content-type".equalsIgnoreCase(h.name)) {
-                type = h.value;
+    /** Returns true for text/* MIME types. A missing type is considered text. */
+    static boolean isTextType(String mime) {
+        return mime == null || mime.regionMatches(true, 0, "text/", 0, 5);
+    }
 
-                int pos = type.indexOf(';');
-                if (pos >= 0)
-                    type = type.substring(0, pos).trim();
+    static int headerCode(String name) {
+        for (int i = 0; i < HEADER_NAMES.length; i++) {
+            if (HEADER_NAMES[i].equalsIgnoreCase(name))
+                return i;
+        }
+        return HEADER_OTHER;
+    }
+
+    static String decode(ByteBuffer data) {
+        if (data.hasArray()) {
+            return new String(data.array(), data.arrayOffset() + data.position(),
+                data.remaining(), UTF8);
+        }
+        return UTF8.decode(data.duplicate()).toString();
+    }
+
+    /** Header rules shared by the Message/CPIM parsers. */
+    static final class HeaderCollector {
+        private boolean mTypeOk;
+        private String mFrom;
+        private String[] mTo;
+        private String mDate;
+        private String mType;
+
+        /** Returns true if the value of the given header is used in the given section. */
+        boolean wants(int section, int header) {
+            switch (section) {
+                case SECTION_CPIM:
+                case SECTION_CONTENT:
+                    return header == HEADER_CONTENT_TYPE;
+                case SECTION_MESSAGE:
+                    return header == HEADER_FROM || header == HEADER_TO ||
+                        header == HEADER_DATETIME;
+                default:
+                    return false;
             }
         }
 
-        // fourth pass: message content
-        contents = p.getData();
+        void header(int section, int header, String value) {
+            if (!wants(section, header))
+                return;
+
+            switch (header) {
+                case HEADER_CONTENT_TYPE:
+                    if (section == SECTION_CPIM) {
+                        if (TYPE.equalsIgnoreCase(value))
+                            mTypeOk = true;
+                    }
+                    else {
+                        int pos = value.indexOf(';');
+                        mType = (pos >= 0) ? value.substring(0, pos).trim() : value;
+                    }
+                    break;
+
+                case HEADER_FROM:
+                    mFrom = value;
+                    break;
+
+                case HEADER_TO:
+                    mTo = value.split(";");
+                    for (int i = 0; i < mTo.length; i++) {
+                        mTo[i] = mTo[i].trim();
+                    }
+                    break;
 
-        Date parsedDate = null;
-        try {
-            if (date != null) {
-                parsedDate = XmppDateTime.parseXEP0082Date(date);
+                case HEADER_DATETIME:
+                    mDate = value;
+                    break;
             }
         }
-        catch (ParseException ignored) {
+
+        String getType() {
+            return mType;
+        }
+
+        CPIMMessage build(CharSequence contents) throws ParseException {
+            return build(contents, null);
         }
 
-        return new CPIMMessage(from, to, parsedDate, type, contents);
+        CPIMMessage build(CharSequence contents, ByteBuffer rawContents) throws ParseException {
+            if (!mTypeOk)
+                throw new ParseException("Invalid content type", 0);
+
+            Date parsedDate = null;
+            try {
+                if (mDate != null) {
+                    parsedDate = TimestampCodec.parseDate(mDate);
+                }
+            }
+            catch (ParseException ignored) {
+            }
+
+            return new CPIMMessage(mFrom, mTo, parsedDate, mType, contents, rawContents);
+        }
     }
 
     private static class CPIMParser {
@@ -290,4 +549,125 @@ public class CPIMMessage {
         }
     }
 
+    /**
+     * Line-oriented Message/CPIM scanner over a byte buffer. It follows the
+     * same rules as {@link CPIMParser} but works on indexes only: nothing is
+     * decoded until {@link #headerValue()} is called.
+     */
+    static final class CPIMByteParser {
+
+        private static final byte[][] HEADER_BYTES;
+
+        static {
+            HEADER_BYTES = new byte[HEADER_NAMES.length][];
+            for (int i = 0; i < HEADER_NAMES.length; i++)
+                HEADER_BYTES[i] = HEADER_NAMES[i].getBytes(UTF8);
+        }
+
+        private final ByteBuffer mData;
+        private final int mLimit;
+        private int mPos;
+
+        private int mNameStart;
+        private int mNameEnd;
+        private int mValueStart;
+        private int mValueEnd;
+
+        public CPIMByteParser(ByteBuffer data) {
+            mData = data;
+            mPos = data.position();
+            mLimit = data.limit();
+        }
+
+        /**
+         * Moves to the next header line of the current section.
+         * @return false if the section is over (or there is no more data)
+         */
+        public boolean nextHeader() {
+            if (mPos >= mLimit)
+                return false;
+
+            int start = mPos;
+            int end = start;
+            while (end < mLimit) {
+                byte b = mData.get(end);
+                if (b == '\n' || b == '\r')
+                    break;
+                end++;
+            }
+
+            // skip the line terminator
+            mPos = end;
+            if (mPos < mLimit && mData.get(mPos) == '\r')
+                mPos++;
+            if (mPos < mLimit && mData.get(mPos) == '\n')
+                mPos++;
+
+            int sep = -1;
+            for (int i = start; i < end; i++) {
+                if (mData.get(i) == ':') {
+                    sep = i;
+                    break;
+                }
+            }
+
+            if (sep < 0)
+                return false;
+
+            mNameStart = trimStart(start, sep);
+            mNameEnd = trimEnd(mNameStart, sep);
+            mValueStart = trimStart(sep + 1, end);
+            mValueEnd = trimEnd(mValueStart, end);
+            return true;
+        }
+
+        /** Returns the known header code of the current header name. */
+        public int headerCode() {
+            int length = mNameEnd - mNameStart;
+            for (int i = 0; i < HEADER_BYTES.length; i++) {
+                byte[] name = HEADER_BYTES[i];
+                if (name.length == length && equalsIgnoreCase(name, mNameStart))
+                    return i;
+            }
+            return HEADER_OTHER;
+        }
+
+        public String headerValue() {
+            ByteBuffer value = mData.duplicate();
+            value.limit(mValueEnd).position(mValueStart);
+            return decode(value);
+        }
+
+        /** Returns a slice of the data following the current position. */
+        public ByteBuffer body() {
+            ByteBuffer body = mData.duplicate();
+            body.position(mPos);
+            return body.slice();
+        }
+
+        private boolean equalsIgnoreCase(byte[] name, int offset) {
+            for (int i = 0; i < name.length; i++) {
+                if (toLowerCase(name[i]) != toLowerCase(mData.get(offset + i)))
+                    return false;
+            }
+            return true;
+        }
+
+        private int trimStart(int start, int end) {
+            while (start < end && (mData.get(start) & 0xff) <= ' ')
+                start++;
+            return start;
+        }
+
+        private int trimEnd(int start, int end) {
+            while (end > start && (mData.get(end - 1) & 0xff) <= ' ')
+                end--;
+            return end;
+        }
+
+        private static int toLowerCase(byte b) {
+            return (b >= 'A' && b <= 'Z') ? b + ('a' - 'A') : b;
+        }
+    }
+
 }
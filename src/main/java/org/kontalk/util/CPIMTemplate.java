@@ -0,0 +1,211 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+
+/**
+ * <p>Pre-encoded Message/CPIM headers for a sender and a set of recipients.</p>
+ * <p>
+ * Messages sent repeatedly to the same recipients differ only in their
+ * DateTime header and body: a template encodes all the other headers once
+ * and writes just those two for each message. The output is the same as
+ * {@link CPIMMessage#toByteArray()}. Templates are immutable and can be
+ * shared between threads.
+ * </p>
+ * <p>
+ * The encoded DateTime value of the last second written is cached, so
+ * messages sent within the same second don't format it again.
+ * </p>
+ * @author Daniele Ricci
+ */
+public class CPIMTemplate {
+
+    private static final Charset UTF8 = Charset.forName(CPIMMessage.CHARSET);
+
+    /** Encoded DateTime value of a second. */
+    private static final class EncodedDate {
+        final long second;
+        final byte[] bytes;
+
+        EncodedDate(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+
+    private static volatile EncodedDate sLastDate = new EncodedDate(Long.MIN_VALUE, null);
+
+    private final String mFrom;
+    private final String[] mTo;
+    private final String mMime;
+
+    /** Headers preceding the DateTime value. */
+    private final byte[] mPrefix;
+    /** Headers following the DateTime value. */
+    private final byte[] mSuffix;
+    /** Same as {@link #mSuffix}, for binary bodies. */
+    private final byte[] mBinarySuffix;
+
+    /** Constructs a new template for plain text messages. */
+    public CPIMTemplate(String from, String[] to) {
+        this(from, to, CPIMMessage.MIME_TYPE);
+    }
+
+    public CPIMTemplate(String from, String[] to, String mime) {
+        mFrom = from;
+        mTo = to.clone();
+        mMime = mime;
+        mPrefix = CPIMMessage.appendHeaderPrefix(new StringBuilder(), mFrom, mTo)
+            .toString().getBytes(UTF8);
+        mSuffix = CPIMMessage.appendHeaderSuffix(new StringBuilder(), mMime, true)
+            .toString().getBytes(UTF8);
+        // binary bodies of text types are still text
+        mBinarySuffix = CPIMMessage.isTextType(mMime) ? mSuffix :
+            CPIMMessage.appendHeaderSuffix(new StringBuilder(), mMime, false)
+                .toString().getBytes(UTF8);
+    }
+
+    public String getFrom() {
+        return mFrom;
+    }
+
+    public String[] getTo() {
+        return mTo.clone();
+    }
+
+    public String getMime() {
+        return mMime;
+    }
+
+    /** Returns a new message with this template's headers. */
+    public CPIMMessage newMessage(Date date, CharSequence body) {
+        return new CPIMMessage(mFrom, mTo.clone(), date, mMime, body);
+    }
+
+    /** Returns a new message with this template's headers and a binary body. */
+    public CPIMMessage newMessage(Date date, ByteBuffer body) {
+        return new CPIMMessage(mFrom, mTo.clone(), date, mMime, body);
+    }
+
+    /** Returns the exact length of the given message once encoded. */
+    public int getEncodedLength(Date date, CharSequence body) {
+        return mPrefix.length + encodeDate(date).length + mSuffix.length +
+            UTF8Utils.encodedLength(body);
+    }
+
+    /** Returns the exact length of the given message with a binary body once encoded. */
+    public int getEncodedLength(Date date, ByteBuffer body) {
+        return mPrefix.length + encodeDate(date).length + mBinarySuffix.length +
+            body.remaining();
+    }
+
+    /** Writes an UTF-8 encoded message to the given stream. */
+    public void writeTo(OutputStream out, Date date, CharSequence body) throws IOException {
+        byte[] buffer = new byte[CPIMMessage.writeBufferSize(body.length())];
+        out.write(mPrefix);
+        out.write(encodeDate(date));
+        out.write(mSuffix);
+        UTF8Utils.write(body, out, buffer);
+    }
+
+    /**
+     * Writes a message with a binary body to the given stream. The body is
+     * written as it is and its buffer position is not modified.
+     */
+    public void writeTo(OutputStream out, Date date, ByteBuffer body) throws IOException {
+        byte[] buffer = new byte[CPIMMessage.writeBufferSize(body.remaining())];
+        out.write(mPrefix);
+        out.write(encodeDate(date));
+        out.write(mBinarySuffix);
+        UTF8Utils.write(body, out, buffer);
+    }
+
+    /**
+     * Writes an UTF-8 encoded message into the given buffer, starting at its position.
+     * @throws java.nio.BufferOverflowException if there is not enough room left
+     */
+    public void writeTo(ByteBuffer out, Date date, CharSequence body) {
+        out.put(mPrefix);
+        out.put(encodeDate(date));
+        out.put(mSuffix);
+        UTF8Utils.encode(body, out);
+    }
+
+    /**
+     * Writes a message with a binary body into the given buffer, starting at
+     * its position. The body is written as it is and its buffer position is
+     * not modified.
+     * @throws java.nio.BufferOverflowException if there is not enough room left
+     */
+    public void writeTo(ByteBuffer out, Date date, ByteBuffer body) {
+        out.put(mPrefix);
+        out.put(encodeDate(date));
+        out.put(mBinarySuffix);
+        out.put(body.duplicate());
+    }
+
+    /** Returns an UTF-8 encoded message. */
+    public byte[] toByteArray(Date date, CharSequence body) {
+        byte[] dateTime = encodeDate(date);
+        byte[] data = new byte[mPrefix.length + dateTime.length + mSuffix.length +
+            UTF8Utils.encodedLength(body)];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        out.put(mPrefix);
+        out.put(dateTime);
+        out.put(mSuffix);
+        UTF8Utils.encode(body, out);
+        return data;
+    }
+
+    /**
+     * Returns a message with a binary body. The body is copied as it is and
+     * its buffer position is not modified.
+     */
+    public byte[] toByteArray(Date date, ByteBuffer body) {
+        byte[] dateTime = encodeDate(date);
+        byte[] data = new byte[mPrefix.length + dateTime.length + mBinarySuffix.length +
+            body.remaining()];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        out.put(mPrefix);
+        out.put(dateTime);
+        out.put(mBinarySuffix);
+        out.put(body.duplicate());
+        return data;
+    }
+
+    /** Returns the encoded DateTime value, shared and not to be modified. */
+    private static byte[] encodeDate(Date date) {
+        long millis = date.getTime();
+        long second = TimestampCodec.floorDiv(millis, 1000);
+        EncodedDate last = sLastDate;
+        if (last.second != second) {
+            // same format as CPIMMessage, without milliseconds (always ASCII)
+            last = new EncodedDate(second, TimestampCodec.formatNoMillis(millis).getBytes(UTF8));
+            sLastDate = last;
+        }
+        return last.bytes;
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Table-driven {@link Base64Codec}.
+ * @author Daniele Ricci
+ */
+public final class DefaultBase64Codec implements Base64Codec {
+
+    private static final char[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final char PADDING = '=';
+
+    private static final byte INVALID = -1;
+    private static final byte WHITESPACE = -2;
+
+    /** Sextet value of every ASCII character, or one of the markers above. */
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, INVALID);
+        for (int i = 0; i < ALPHABET.length; i++)
+            DECODE[ALPHABET[i]] = (byte) i;
+        DECODE[' '] = WHITESPACE;
+        DECODE['\t'] = WHITESPACE;
+        DECODE['\r'] = WHITESPACE;
+        DECODE['\n'] = WHITESPACE;
+    }
+
+    /** Characters encoded at a time when writing to an {@link Appendable}. */
+    private static final int APPEND_CHUNK_SIZE = 4 * 1024;
+
+    private static final DefaultBase64Codec sInstance = new DefaultBase64Codec();
+
+    private DefaultBase64Codec() {
+    }
+
+    public static DefaultBase64Codec getInstance() {
+        return sInstance;
+    }
+
+    @Override
+    public int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    @Override
+    public int encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        final char[] alphabet = ALPHABET;
+        int end = offset + length;
+        int whole = offset + length / 3 * 3;
+        int pos = dstOffset;
+        int i = offset;
+
+        while (i < whole) {
+            int bits = (src[i++] & 0xff) << 16 | (src[i++] & 0xff) << 8 | (src[i++] & 0xff);
+            dst[pos++] = alphabet[bits >>> 18];
+            dst[pos++] = alphabet[(bits >>> 12) & 0x3f];
+            dst[pos++] = alphabet[(bits >>> 6) & 0x3f];
+            dst[pos++] = alphabet[bits & 0x3f];
+        }
+
+        int left = end - whole;
+        if (left > 0) {
+            int bits = (src[i] & 0xff) << 16;
+            if (left == 2)
+                bits |= (src[i + 1] & 0xff) << 8;
+            dst[pos++] = alphabet[bits >>> 18];
+            dst[pos++] = alphabet[(bits >>> 12) & 0x3f];
+            dst[pos++] = left == 2 ? alphabet[(bits >>> 6) & 0x3f] : PADDING;
+            dst[pos++] = PADDING;
+        }
+
+        return pos - dstOffset;
+    }
+
+    @Override
+    public void encode(byte[] src, int offset, int length, Appendable out) throws IOException {
+        // whole groups only, except for the last chunk
+        final int chunkBytes = APPEND_CHUNK_SIZE / 4 * 3;
+        char[] buffer = new char[encodedLength(Math.min(length, chunkBytes))];
+        int end = offset + length;
+        for (int i = offset; i < end; i += chunkBytes) {
+            int count = encode(src, i, Math.min(chunkBytes, end - i), buffer, 0);
+            if (out instanceof Writer)
+                ((Writer) out).write(buffer, 0, count);
+            else if (out instanceof StringBuilder)
+                ((StringBuilder) out).append(buffer, 0, count);
+            else
+                // the buffer is reused, don't let it escape
+                out.append(new String(buffer, 0, count));
+        }
+    }
+
+    @Override
+    public int decodedLength(CharSequence src, int start, int end) {
+        int chars = 0;
+        int padding = 0;
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c == PADDING) {
+                padding++;
+            }
+            else {
+                int value = c < DECODE.length ? DECODE[c] : INVALID;
+                if (value == INVALID || (value >= 0 && padding > 0))
+                    throw invalidCharacter(c, i);
+                if (value >= 0)
+                    chars++;
+            }
+        }
+
+        int left = chars % 4;
+        if (left == 1 || padding > 2 || (padding > 0 && (left + padding) % 4 != 0))
+            throw new IllegalArgumentException("invalid Base64 length");
+        return chars / 4 * 3 + (left > 0 ? left - 1 : 0);
+    }
+
+    @Override
+    public int decode(CharSequence src, int start, int end, byte[] dst, int dstOffset) {
+        final byte[] table = DECODE;
+        int pos = dstOffset;
+        int bits = 0;
+        int count = 0;
+        int i = start;
+
+        for (; i < end; i++) {
+            char c = src.charAt(i);
+            int value = c < table.length ? table[c] : INVALID;
+            if (value >= 0) {
+                bits = bits << 6 | value;
+                if (++count == 4) {
+                    dst[pos++] = (byte) (bits >> 16);
+                    dst[pos++] = (byte) (bits >> 8);
+                    dst[pos++] = (byte) bits;
+                    bits = 0;
+                    count = 0;
+                }
+            }
+            else if (value != WHITESPACE) {
+                break;
+            }
+        }
+
+        checkTail(src, i, end, count);
+        if (count == 2) {
+            dst[pos++] = (byte) (bits >> 4);
+        }
+        else if (count == 3) {
+            dst[pos++] = (byte) (bits >> 10);
+            dst[pos++] = (byte) (bits >> 2);
+        }
+        return pos - dstOffset;
+    }
+
+    @Override
+    public int decode(CharSequence src, int start, int end, ByteBuffer dst) {
+        if (dst.hasArray()) {
+            int written = decode(src, start, end, dst.array(), dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + written);
+            return written;
+        }
+
+        final byte[] table = DECODE;
+        int begin = dst.position();
+        int bits = 0;
+        int count = 0;
+        int i = start;
+
+        for (; i < end; i++) {
+            char c = src.charAt(i);
+            int value = c < table.length ? table[c] : INVALID;
+            if (value >= 0) {
+                bits = bits << 6 | value;
+                if (++count == 4) {
+                    dst.put((byte) (bits >> 16));
+                    dst.put((byte) (bits >> 8));
+                    dst.put((byte) bits);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+            else if (value != WHITESPACE) {
+                break;
+            }
+        }
+
+        checkTail(src, i, end, count);
+        if (count == 2) {
+            dst.put((byte) (bits >> 4));
+        }
+        else if (count == 3) {
+            dst.put((byte) (bits >> 10));
+            dst.put((byte) (bits >> 2));
+        }
+        return dst.position() - begin;
+    }
+
+    /**
+     * Validates what follows the data: nothing but padding and whitespace,
+     * with padding (if any) completing the last group.
+     */
+    private static void checkTail(CharSequence src, int start, int end, int count) {
+        int padding = 0;
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c == PADDING)
+                padding++;
+            else if (c >= DECODE.length || DECODE[c] != WHITESPACE)
+                throw invalidCharacter(c, i);
+        }
+
+        if (count == 1 || padding > 2 || (padding > 0 && count + padding != 4))
+            throw new IllegalArgumentException("invalid Base64 length");
+    }
+
+    private static IllegalArgumentException invalidCharacter(char c, int index) {
+        return new IllegalArgumentException("invalid Base64 character 0x" +
+            Integer.toHexString(c) + " at " + index);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+
+/**
+ * Decides how much padding to add to some content, e.g. to hide its size.
+ * @author Daniele Ricci
+ */
+public abstract class PaddingPolicy {
+
+    /** No padding at all. */
+    public static final PaddingPolicy NONE = fixed(0);
+
+    /**
+     * Returns the number of padding characters to add to content of the
+     * given length. Padding characters are ASCII, so each one is a single
+     * byte once encoded to UTF-8.
+     * @param contentLength length of the content in bytes, as it will be
+     *                      encoded (e.g. UTF-8), or 0 if the policy is not
+     *                      {@link #isContentDependent() content dependent}
+     */
+    public abstract int getPaddingLength(int contentLength);
+
+    /**
+     * Returns true if the padding length depends on the content length.
+     * Content needs to be serialized in advance to measure it, so policies
+     * that don't need it should say so.
+     */
+    public boolean isContentDependent() {
+        return true;
+    }
+
+    /** Always the same amount of padding, whatever the content. */
+    public static PaddingPolicy fixed(final int length) {
+        if (length < 0)
+            throw new IllegalArgumentException("negative padding length");
+        return new PaddingPolicy() {
+            @Override
+            public int getPaddingLength(int contentLength) {
+                return length;
+            }
+
+            @Override
+            public boolean isContentDependent() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Pads content up to the next multiple of the given size, so that only
+     * the number of buckets it fills can be told from its length.
+     */
+    public static PaddingPolicy bucketed(final int bucketSize) {
+        if (bucketSize <= 0)
+            throw new IllegalArgumentException("bucket size must be positive");
+        return new PaddingPolicy() {
+            @Override
+            public int getPaddingLength(int contentLength) {
+                int remainder = contentLength % bucketSize;
+                return remainder > 0 ? bucketSize - remainder : 0;
+            }
+        };
+    }
+
+}
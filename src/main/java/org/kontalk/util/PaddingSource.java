@@ -0,0 +1,114 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.security.SecureRandom;
+
+
+/**
+ * <p>Random padding text, e.g. for the rpad element of signcrypt.</p>
+ * <p>
+ * Each thread has its own {@link SecureRandom} and draws random bytes from
+ * it in bulk, so the (possibly shared and locked) entropy source is hit
+ * once every few hundred characters instead of once per call. Characters
+ * come from the 64 characters of the URL-safe Base64 alphabet, so every
+ * random byte maps to a character without bias.
+ * </p>
+ * @author Daniele Ricci
+ */
+public final class PaddingSource {
+
+    private static final char[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    /** Random bytes drawn at a time. */
+    private static final int POOL_SIZE = 512;
+
+    private static final class State {
+        final SecureRandom random = new SecureRandom();
+        final byte[] pool = new byte[POOL_SIZE];
+        int position = POOL_SIZE;
+        /** Scratch buffer for {@link #append}. */
+        final char[] chars = new char[POOL_SIZE];
+    }
+
+    private static final ThreadLocal<State> sState = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    private PaddingSource() {
+        throw new AssertionError();
+    }
+
+    /** Fills the given range of the array with random characters. */
+    public static void fill(char[] dst, int offset, int length) {
+        fill(sState.get(), dst, offset, length);
+    }
+
+    public static String randomString(int length) {
+        char[] chars = new char[length];
+        fill(chars, 0, length);
+        return new String(chars);
+    }
+
+    /**
+     * Returns random characters backed by a new array, without copying them
+     * into a String. Meant for builders that keep a reference to what they
+     * are given (e.g. {@code XmlStringBuilder}).
+     */
+    public static CharSequence randomChars(int length) {
+        char[] chars = new char[length];
+        fill(chars, 0, length);
+        return CharBuffer.wrap(chars);
+    }
+
+    /** Writes random characters to the given writer, without creating any String. */
+    public static void append(Writer out, int length) throws IOException {
+        State state = sState.get();
+        char[] chars = state.chars;
+        while (length > 0) {
+            int count = Math.min(length, chars.length);
+            fill(state, chars, 0, count);
+            out.write(chars, 0, count);
+            length -= count;
+        }
+    }
+
+    private static void fill(State state, char[] dst, int offset, int length) {
+        final char[] alphabet = ALPHABET;
+        byte[] pool = state.pool;
+        int position = state.position;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (position == pool.length) {
+                state.random.nextBytes(pool);
+                position = 0;
+            }
+            dst[i] = alphabet[pool[position++] & 0x3f];
+        }
+        state.position = position;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+
+/**
+ * Thread related queries that depend on the Java version.
+ * This is the Java 7 version, where every thread is a platform thread; the
+ * Java 9 one in the multi-release jar recognizes virtual threads.
+ * @author Daniele Ricci
+ */
+final class ThreadPlatform {
+
+    private ThreadPlatform() {
+        throw new AssertionError();
+    }
+
+    /** Returns true if the calling thread is a virtual thread. */
+    static boolean isVirtualThread() {
+        return false;
+    }
+
+}
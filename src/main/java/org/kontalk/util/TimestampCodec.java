@@ -0,0 +1,278 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.text.ParseException;
+import java.util.Date;
+
+import org.jxmpp.util.XmppDateTime;
+
+
+/**
+ * <p>XEP-0082 date/time codec working on epoch milliseconds.</p>
+ * <p>
+ * Dates are always formatted in UTC. Formatting takes no locks: the
+ * "yyyy-MM-ddTHH:mm:ss" prefix of the last formatted second is cached in an
+ * immutable holder, so messages sent within the same second only append
+ * milliseconds and time zone. Parsing handles the XEP-0082 DateTime profile
+ * directly and falls back to {@link XmppDateTime} for anything else.
+ * </p>
+ * @author Daniele Ricci
+ */
+public class TimestampCodec {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long SECONDS_PER_DAY = 86400;
+
+    /** Length of "yyyy-MM-ddTHH:mm:ss". */
+    private static final int PREFIX_LENGTH = 19;
+    private static final String UTC_SUFFIX = "+00:00";
+
+    /**
+     * Years handled directly. Earlier dates go through {@link XmppDateTime}, whose
+     * calendar switches to Julian before 1582.
+     */
+    private static final int MIN_YEAR = 1600;
+    private static final int MAX_YEAR = 9999;
+
+    /** Formatted prefix of a second. */
+    private static final class Prefix {
+        final long second;
+        final char[] chars;
+
+        Prefix(long second, char[] chars) {
+            this.second = second;
+            this.chars = chars;
+        }
+    }
+
+    private static volatile Prefix sLastPrefix = new Prefix(Long.MIN_VALUE, null);
+
+    private TimestampCodec() {
+        throw new AssertionError();
+    }
+
+    /** Formats a XEP-0082 DateTime with milliseconds, e.g. 2014-07-10T15:06:00.000+00:00 */
+    public static String format(long millis) {
+        return appendTo(new StringBuilder(PREFIX_LENGTH + 4 + UTC_SUFFIX.length()), millis, true)
+            .toString();
+    }
+
+    /** Formats a XEP-0082 DateTime without milliseconds, e.g. 2014-07-10T15:06:00+00:00 */
+    public static String formatNoMillis(long millis) {
+        return appendTo(new StringBuilder(PREFIX_LENGTH + UTC_SUFFIX.length()), millis, false)
+            .toString();
+    }
+
+    /** Appends a XEP-0082 DateTime to the given builder. */
+    public static StringBuilder appendTo(StringBuilder out, long millis, boolean withMillis) {
+        long second = floorDiv(millis, MILLIS_PER_SECOND);
+        Prefix prefix = sLastPrefix;
+        if (prefix.second != second) {
+            char[] chars = formatPrefix(second);
+            if (chars == null) {
+                // out of the supported year range
+                String date = XmppDateTime.formatXEP0082Date(new Date(millis));
+                if (!withMillis)
+                    date = date.substring(0, date.lastIndexOf('.')) + UTC_SUFFIX;
+                return out.append(date);
+            }
+            prefix = new Prefix(second, chars);
+            sLastPrefix = prefix;
+        }
+
+        out.append(prefix.chars);
+        if (withMillis) {
+            int ms = (int) (millis - second * MILLIS_PER_SECOND);
+            out.append('.')
+                .append((char) ('0' + ms / 100))
+                .append((char) ('0' + ms / 10 % 10))
+                .append((char) ('0' + ms % 10));
+        }
+        return out.append(UTC_SUFFIX);
+    }
+
+    /** Parses a XEP-0082 date/time into epoch milliseconds. */
+    public static long parse(CharSequence text) throws ParseException {
+        long millis = parseDateTime(text);
+        if (millis == Long.MIN_VALUE)
+            millis = XmppDateTime.parseXEP0082Date(text.toString()).getTime();
+        return millis;
+    }
+
+    /** Parses a XEP-0082 date/time into a {@link Date}. */
+    public static Date parseDate(CharSequence text) throws ParseException {
+        return new Date(parse(text));
+    }
+
+    private static char[] formatPrefix(long second) {
+        long days = floorDiv(second, SECONDS_PER_DAY);
+        int secondOfDay = (int) (second - days * SECONDS_PER_DAY);
+
+        // civil date from days since epoch (proleptic Gregorian calendar)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < MIN_YEAR || year > MAX_YEAR)
+            return null;
+
+        char[] c = new char[PREFIX_LENGTH];
+        put4(c, 0, (int) year);
+        c[4] = '-';
+        put2(c, 5, month);
+        c[7] = '-';
+        put2(c, 8, day);
+        c[10] = 'T';
+        put2(c, 11, secondOfDay / 3600);
+        c[13] = ':';
+        put2(c, 14, secondOfDay / 60 % 60);
+        c[16] = ':';
+        put2(c, 17, secondOfDay % 60);
+        return c;
+    }
+
+    /**
+     * Parses yyyy-MM-ddTHH:mm:ss[.fraction](Z|(+|-)HH:mm).
+     * @return epoch milliseconds, or {@link Long#MIN_VALUE} if the text is not in that form
+     */
+    private static long parseDateTime(CharSequence s) {
+        int length = s.length();
+        if (length < PREFIX_LENGTH + 1 ||
+                s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' ||
+                s.charAt(13) != ':' || s.charAt(16) != ':')
+            return Long.MIN_VALUE;
+
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if (year < MIN_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+                hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+            return Long.MIN_VALUE;
+
+        int pos = PREFIX_LENGTH;
+        int millis = 0;
+        if (s.charAt(pos) == '.') {
+            int start = ++pos;
+            while (pos < length && isDigit(s.charAt(pos))) {
+                // only milliseconds are kept
+                if (pos - start < 3)
+                    millis = millis * 10 + (s.charAt(pos) - '0');
+                pos++;
+            }
+            int count = pos - start;
+            if (count == 0)
+                return Long.MIN_VALUE;
+            for (; count < 3; count++)
+                millis *= 10;
+        }
+
+        if (pos >= length)
+            return Long.MIN_VALUE;
+
+        int offset;
+        char zone = s.charAt(pos);
+        if (zone == 'Z' && pos + 1 == length) {
+            offset = 0;
+        }
+        else if ((zone == '+' || zone == '-') && pos + 6 == length && s.charAt(pos + 3) == ':') {
+            int offsetHours = digits(s, pos + 1, 2);
+            int offsetMinutes = digits(s, pos + 4, 2);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59)
+                return Long.MIN_VALUE;
+            offset = offsetHours * 60 + offsetMinutes;
+            if (zone == '-')
+                offset = -offset;
+        }
+        else {
+            return Long.MIN_VALUE;
+        }
+
+        long seconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY +
+            hour * 3600 + minute * 60 + second - offset * 60;
+        return seconds * MILLIS_PER_SECOND + millis;
+    }
+
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = year - (month <= 2 ? 1 : 0);
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /** Parses a fixed number of digits, returns -1 if any of them is not a digit. */
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c))
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void put2(char[] c, int offset, int value) {
+        c[offset] = (char) ('0' + value / 10);
+        c[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static void put4(char[] c, int offset, int value) {
+        put2(c, offset, value / 100);
+        put2(c, offset + 2, value % 100);
+    }
+
+    static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            q--;
+        return q;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * UTF-8 encoding of character sequences straight into byte sinks.
+ * Unpaired surrogates are encoded as '?', like {@link String#getBytes(String)} does.
+ * @author Daniele Ricci
+ */
+public class UTF8Utils {
+
+    /** Minimum size of the scratch buffer used by {@link #write}. */
+    public static final int MIN_BUFFER_SIZE = 4;
+
+    private UTF8Utils() {
+        throw new AssertionError();
+    }
+
+    /** Returns the exact length of the given text once encoded to UTF-8. */
+    public static int encodedLength(CharSequence text) {
+        int length = 0;
+        int count = text.length();
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < count &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                length++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the given text into the buffer, starting at its position.
+     * @throws java.nio.BufferOverflowException if there is not enough room left
+     */
+    public static void encode(CharSequence text, ByteBuffer out) {
+        byte[] scratch = new byte[MIN_BUFFER_SIZE];
+        int count = text.length();
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            }
+            else {
+                int length = encodeChar(text, i, count, scratch, 0);
+                out.put(scratch, 0, length);
+                if (length == 4)
+                    i++;
+            }
+        }
+    }
+
+    /**
+     * Encodes the given text and writes it to the stream, using the given
+     * buffer (at least {@link #MIN_BUFFER_SIZE} bytes long) as scratch space.
+     */
+    public static void write(CharSequence text, OutputStream out, byte[] buffer) throws IOException {
+        int count = text.length();
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos > buffer.length - MIN_BUFFER_SIZE) {
+                out.write(buffer, 0, pos);
+                pos = 0;
+            }
+
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            }
+            else {
+                int length = encodeChar(text, i, count, buffer, pos);
+                pos += length;
+                if (length == 4)
+                    i++;
+            }
+        }
+
+        if (pos > 0)
+            out.write(buffer, 0, pos);
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the stream, without
+     * modifying the buffer position.
+     */
+    public static void write(ByteBuffer data, OutputStream out, byte[] buffer) throws IOException {
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        else {
+            ByteBuffer src = data.duplicate();
+            while (src.hasRemaining()) {
+                int length = Math.min(buffer.length, src.remaining());
+                src.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Encodes the non-ASCII character at the given index.
+     * @return the number of bytes written; 4 means a surrogate pair was consumed
+     */
+    private static int encodeChar(CharSequence text, int index, int count, byte[] out, int offset) {
+        char c = text.charAt(index);
+        if (c < 0x800) {
+            out[offset] = (byte) (0xc0 | (c >> 6));
+            out[offset + 1] = (byte) (0x80 | (c & 0x3f));
+            return 2;
+        }
+        else if (Character.isHighSurrogate(c) && index + 1 < count &&
+                Character.isLowSurrogate(text.charAt(index + 1))) {
+            int cp = Character.toCodePoint(c, text.charAt(index + 1));
+            out[offset] = (byte) (0xf0 | (cp >> 18));
+            out[offset + 1] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            out[offset + 2] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            out[offset + 3] = (byte) (0x80 | (cp & 0x3f));
+            return 4;
+        }
+        else if (Character.isSurrogate(c)) {
+            out[offset] = '?';
+            return 1;
+        }
+        else {
+            out[offset] = (byte) (0xe0 | (c >> 12));
+            out[offset + 1] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            out[offset + 2] = (byte) (0x80 | (c & 0x3f));
+            return 3;
+        }
+    }
+
+}
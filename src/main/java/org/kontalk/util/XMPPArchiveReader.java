@@ -0,0 +1,167 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+
+/**
+ * <p>Streaming reader for archives of &lt;xmpp&gt;-wrapped message stanzas.</p>
+ * <p>
+ * An archive is a sequence of UTF-8 encoded &lt;xmpp&gt; elements, each one
+ * wrapping a message stanza like those parsed by
+ * {@link XMPPParserUtils#parseMessageStanza(String)}, without any XML
+ * declaration. The whole archive goes through a single parser and messages
+ * are returned one at a time, so memory usage does not depend on the size
+ * of the archive. Usage:
+ * </p>
+ * <pre>
+ * try (XMPPArchiveReader reader = new XMPPArchiveReader(file)) {
+ *     Message msg;
+ *     while ((msg = reader.read()) != null) {
+ *         // ...
+ *     }
+ * }
+ * </pre>
+ * <p>Instances are not thread-safe.</p>
+ * @author Daniele Ricci
+ */
+public class XMPPArchiveReader implements Closeable {
+
+    /** Not all parsers accept multiple root elements, so we add one. */
+    private static final String ROOT_ELEMENT = "archive";
+
+    private static final int ROOT_DEPTH = 1;
+    private static final int WRAPPER_DEPTH = ROOT_DEPTH + 1;
+    private static final int STANZA_DEPTH = WRAPPER_DEPTH + 1;
+
+    private final InputStream mInput;
+    private final XmlPullParser mParser;
+    private boolean mDone;
+
+    public XMPPArchiveReader(File file) throws IOException, XmlPullParserException {
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * The stream will be closed by {@link #close()}, or right away if the
+     * reader can't be created.
+     */
+    public XMPPArchiveReader(InputStream in) throws XmlPullParserException {
+        mInput = in;
+        try {
+            mParser = XmlPullParserPool.newParser();
+
+            InputStream archive = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                toStream("<" + ROOT_ELEMENT + ">"),
+                in,
+                toStream("</" + ROOT_ELEMENT + ">"))));
+            mParser.setInput(archive, XMPPParserUtils.DEFAULT_ENCODING);
+        }
+        catch (XmlPullParserException | RuntimeException e) {
+            closeQuietly(in);
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        }
+        catch (IOException ignored) {
+            // already failing, keep the original error
+        }
+    }
+
+    private static InputStream toStream(String text) {
+        try {
+            return new ByteArrayInputStream(text.getBytes(XMPPParserUtils.DEFAULT_ENCODING));
+        }
+        catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads the next message stanza. Wrappers not containing a message are
+     * skipped; if a wrapper contains more than one, only the first is returned.
+     * @return the next message, or null at the end of the archive
+     */
+    public Message read() throws Exception {
+        if (mDone)
+            return null;
+
+        Message msg = null;
+        boolean in_xmpp = false;
+
+        while (true) {
+            int eventType = mParser.next();
+
+            if (eventType == XmlPullParser.START_TAG) {
+                int depth = mParser.getDepth();
+
+                if (depth == WRAPPER_DEPTH && "xmpp".equals(mParser.getName()))
+                    in_xmpp = true;
+
+                else if (depth == STANZA_DEPTH && in_xmpp && msg == null &&
+                        "message".equals(mParser.getName()))
+                    msg = PacketParserUtils.parseMessage(mParser);
+            }
+
+            else if (eventType == XmlPullParser.END_TAG) {
+                int depth = mParser.getDepth();
+
+                if (depth == WRAPPER_DEPTH) {
+                    in_xmpp = false;
+                    if (msg != null)
+                        return msg;
+                }
+                else if (depth == ROOT_DEPTH) {
+                    mDone = true;
+                    return null;
+                }
+            }
+
+            else if (eventType == XmlPullParser.END_DOCUMENT) {
+                mDone = true;
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDone = true;
+        mInput.close();
+    }
+
+}
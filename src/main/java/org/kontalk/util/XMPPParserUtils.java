@@ -18,13 +18,15 @@
 
 package org.kontalk.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 
 /**
@@ -35,32 +37,121 @@ public class XMPPParserUtils {
 
     public static final String XML_XMPP_TYPE = "application/xmpp+xml";
 
+    /** Encoding used for byte input when none is given. */
+    public static final String DEFAULT_ENCODING = "UTF-8";
+
     private XMPPParserUtils() {
         throw new AssertionError();
     }
 
-    private static XmlPullParserFactory _xmlFactory;
-
+    /** Returns a new namespace-aware parser reading the given data. */
     public static XmlPullParser getPullParser(String data) throws XmlPullParserException {
-        if (_xmlFactory == null) {
-            _xmlFactory = XmlPullParserFactory.newInstance();
-            _xmlFactory.setNamespaceAware(true);
-        }
-
-        XmlPullParser parser = _xmlFactory.newPullParser();
+        XmlPullParser parser = XmlPullParserPool.newParser();
         parser.setInput(new StringReader(data));
 
         return parser;
     }
 
+    /**
+     * Returns a namespace-aware parser reading the given data, reusing the
+     * calling thread's parser if possible. The parser must be given back with
+     * {@link #releasePullParser} when done.
+     */
+    public static XmlPullParser acquirePullParser(Reader in) throws XmlPullParserException {
+        XmlPullParser parser = XmlPullParserPool.acquire();
+        try {
+            XmlPullParserPool.setInput(parser, in);
+        }
+        catch (XmlPullParserException e) {
+            XmlPullParserPool.release(parser);
+            throw e;
+        }
+        return parser;
+    }
+
+    /**
+     * Same as {@link #acquirePullParser(Reader)}, for a byte stream.
+     * @param encoding input encoding, null for {@link #DEFAULT_ENCODING}
+     */
+    public static XmlPullParser acquirePullParser(InputStream in, String encoding) throws XmlPullParserException {
+        XmlPullParser parser = XmlPullParserPool.acquire();
+        try {
+            XmlPullParserPool.setInput(parser, in, encoding != null ? encoding : DEFAULT_ENCODING);
+        }
+        catch (XmlPullParserException e) {
+            XmlPullParserPool.release(parser);
+            throw e;
+        }
+        return parser;
+    }
+
+    /** Same as {@link #acquirePullParser(Reader)}, for UTF-8 encoded data. */
+    public static XmlPullParser acquirePullParser(byte[] data) throws XmlPullParserException {
+        return acquirePullParser(data, 0, data.length);
+    }
+
+    /** Same as {@link #acquirePullParser(Reader)}, for UTF-8 encoded data. */
+    public static XmlPullParser acquirePullParser(byte[] data, int offset, int length) throws XmlPullParserException {
+        return acquirePullParser(new ByteArrayInputStream(data, offset, length), DEFAULT_ENCODING);
+    }
+
+    /** Gives back a parser obtained from one of the acquirePullParser methods. */
+    public static void releasePullParser(XmlPullParser parser) {
+        XmlPullParserPool.release(parser);
+    }
+
     /** Parses a &lt;xmpp&gt;-wrapped message stanza. */
     public static Message parseMessageStanza(String data) throws Exception {
+        XmlPullParser parser = acquirePullParser(new StringReader(data));
+        try {
+            return parseMessageStanza(parser);
+        }
+        finally {
+            releasePullParser(parser);
+        }
+    }
+
+    /** Parses an UTF-8 encoded &lt;xmpp&gt;-wrapped message stanza. */
+    public static Message parseMessageStanza(byte[] data) throws Exception {
+        return parseMessageStanza(data, 0, data.length);
+    }
+
+    /** Parses an UTF-8 encoded &lt;xmpp&gt;-wrapped message stanza. */
+    public static Message parseMessageStanza(byte[] data, int offset, int length) throws Exception {
+        XmlPullParser parser = acquirePullParser(data, offset, length);
+        try {
+            return parseMessageStanza(parser);
+        }
+        finally {
+            releasePullParser(parser);
+        }
+    }
 
-        XmlPullParser parser = getPullParser(data);
-        boolean done = false, in_xmpp = false;
-        Message msg = null;
+    /**
+     * Parses an UTF-8 encoded &lt;xmpp&gt;-wrapped message stanza. Parsing
+     * stops right after the message end tag, so anything after it is never
+     * parsed. The parser reads the stream ahead in blocks though, so bytes
+     * past the stanza may have been consumed: the stream position afterwards
+     * is undefined and the stream should not be reused. It is not closed.
+     */
+    public static Message parseMessageStanza(InputStream in) throws Exception {
+        XmlPullParser parser = acquirePullParser(in, DEFAULT_ENCODING);
+        try {
+            return parseMessageStanza(parser);
+        }
+        finally {
+            releasePullParser(parser);
+        }
+    }
 
-        while (!done) {
+    /**
+     * Returns the first message found in the &lt;xmpp&gt; element, as soon as
+     * its end tag is reached. Anything after it is not parsed.
+     */
+    private static Message parseMessageStanza(XmlPullParser parser) throws Exception {
+        boolean in_xmpp = false;
+
+        while (true) {
             int eventType = parser.next();
 
             if (eventType == XmlPullParser.START_TAG) {
@@ -68,19 +159,20 @@ public class XMPPParserUtils {
                 if ("xmpp".equals(parser.getName()))
                     in_xmpp = true;
 
-                else if ("message".equals(parser.getName()) && in_xmpp) {
-                    msg = PacketParserUtils.parseMessage(parser);
-                }
+                else if ("message".equals(parser.getName()) && in_xmpp)
+                    return PacketParserUtils.parseMessage(parser);
             }
 
             else if (eventType == XmlPullParser.END_TAG) {
 
                 if ("xmpp".equals(parser.getName()))
-                    done = true;
+                    return null;
             }
-        }
 
-        return msg;
+            else if (eventType == XmlPullParser.END_DOCUMENT) {
+                return null;
+            }
+        }
     }
 
 }
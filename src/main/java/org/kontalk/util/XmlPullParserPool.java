@@ -0,0 +1,248 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+
+/**
+ * <p>Namespace-aware pull parser provisioning.</p>
+ * <p>
+ * Each thread keeps one parser that is reused through
+ * {@link XmlPullParser#setInput}. A thread asking for a parser while its own
+ * is still in use (e.g. a provider parsing a nested stanza) gets a new one,
+ * which is simply dropped when released. No locks are involved.
+ * </p>
+ * <p>
+ * The parser buffers grow with the largest text they have read and never
+ * shrink, so a parser that has read more than {@link #MAX_RETAINED_INPUT} is
+ * dropped too instead of being kept.
+ * </p>
+ * <p>
+ * Virtual threads (Java 21, see {@link ThreadPlatform}) are too many and too
+ * short-lived for that, so they share a small lock-free pool instead.
+ * </p>
+ * @author Daniele Ricci
+ */
+final class XmlPullParserPool {
+
+    /** Maximum number of idle parsers shared by virtual threads. */
+    private static final int SHARED_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Input size (chars for readers, bytes for streams) above which a parser is not kept. */
+    static final int MAX_RETAINED_INPUT = 64 * 1024;
+
+    private static volatile XmlPullParserFactory sFactory;
+
+    /** Per-thread parser and whether it's been handed out. */
+    private static final class Slot {
+        XmlPullParser parser;
+        boolean inUse;
+        /** Parser whose input is being counted. */
+        XmlPullParser counted;
+        long inputLength;
+    }
+
+    private static final ThreadLocal<Slot> sSlot = new ThreadLocal<Slot>() {
+        @Override
+        protected Slot initialValue() {
+            return new Slot();
+        }
+    };
+
+    private static final ConcurrentLinkedQueue<XmlPullParser> sShared = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger sSharedCount = new AtomicInteger();
+
+    private XmlPullParserPool() {
+        throw new AssertionError();
+    }
+
+    /** Returns the shared factory, creating it if needed. */
+    static XmlPullParserFactory getFactory() throws XmlPullParserException {
+        XmlPullParserFactory factory = sFactory;
+        if (factory == null) {
+            // racing threads might create more than one, which is harmless:
+            // a factory is never modified after being published
+            factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            sFactory = factory;
+        }
+        return factory;
+    }
+
+    /** Returns a new parser, not bound to any thread. */
+    static XmlPullParser newParser() throws XmlPullParserException {
+        return getFactory().newPullParser();
+    }
+
+    /**
+     * Returns a parser for the calling thread. It must be given back with
+     * {@link #release} once done, from the same thread.
+     */
+    static XmlPullParser acquire() throws XmlPullParserException {
+        if (ThreadPlatform.isVirtualThread()) {
+            XmlPullParser parser = sShared.poll();
+            if (parser == null)
+                return newParser();
+            sSharedCount.decrementAndGet();
+            return parser;
+        }
+
+        Slot slot = sSlot.get();
+        if (slot.inUse)
+            return newParser();
+
+        if (slot.parser == null)
+            slot.parser = newParser();
+        slot.inUse = true;
+        return slot.parser;
+    }
+
+    /**
+     * Sets the input of a parser obtained from {@link #acquire}, counting
+     * what it reads.
+     */
+    static void setInput(XmlPullParser parser, Reader in) throws XmlPullParserException {
+        Slot slot = sSlot.get();
+        if (track(slot, parser))
+            in = new CountingReader(in, slot);
+        parser.setInput(in);
+    }
+
+    /** Same as {@link #setInput(XmlPullParser, Reader)}, for a byte stream. */
+    static void setInput(XmlPullParser parser, InputStream in, String encoding) throws XmlPullParserException {
+        Slot slot = sSlot.get();
+        if (track(slot, parser))
+            in = new CountingInputStream(in, slot);
+        parser.setInput(in, encoding);
+    }
+
+    /**
+     * Only the outermost parser of a thread is counted. Nested ones are
+     * never kept anyway (see {@link #release}).
+     */
+    private static boolean track(Slot slot, XmlPullParser parser) {
+        if (slot.counted != null && slot.counted != parser)
+            return false;
+
+        slot.counted = parser;
+        slot.inputLength = 0;
+        return true;
+    }
+
+    /** Gives back a parser obtained from {@link #acquire}. */
+    static void release(XmlPullParser parser) {
+        Slot slot = sSlot.get();
+        // parsers whose input was not counted are not kept
+        boolean keep = slot.counted == parser && slot.inputLength <= MAX_RETAINED_INPUT;
+        if (slot.counted == parser)
+            slot.counted = null;
+
+        if (ThreadPlatform.isVirtualThread()) {
+            if (!keep || !reset(parser))
+                return;
+            if (sSharedCount.incrementAndGet() <= SHARED_POOL_SIZE)
+                sShared.offer(parser);
+            else
+                sSharedCount.decrementAndGet();
+            return;
+        }
+
+        if (slot.parser != parser)
+            return;
+
+        if (!keep || !reset(parser)) {
+            // too large or unusable, create another one next time
+            slot.parser = null;
+        }
+        slot.inUse = false;
+    }
+
+    /** Don't keep the last input alive. */
+    private static boolean reset(XmlPullParser parser) {
+        try {
+            parser.setInput((Reader) null);
+            return true;
+        }
+        catch (XmlPullParserException e) {
+            return false;
+        }
+    }
+
+    private static final class CountingReader extends FilterReader {
+        private final Slot mSlot;
+
+        CountingReader(Reader in, Slot slot) {
+            super(in);
+            mSlot = slot;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0)
+                mSlot.inputLength++;
+            return c;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            int count = super.read(buf, off, len);
+            if (count > 0)
+                mSlot.inputLength += count;
+            return count;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final Slot mSlot;
+
+        CountingInputStream(InputStream in, Slot slot) {
+            super(in);
+            mSlot = slot;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0)
+                mSlot.inputLength++;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int count = super.read(buf, off, len);
+            if (count > 0)
+                mSlot.inputLength += count;
+            return count;
+        }
+    }
+
+}
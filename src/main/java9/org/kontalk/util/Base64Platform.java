@@ -0,0 +1,60 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * String conversions of {@link Base64} when the default codec is in use.
+ * This is the Java 9 version, delegating to {@code java.util.Base64} whose
+ * loops are intrinsified by recent JVMs.
+ * @author Daniele Ricci
+ */
+final class Base64Platform {
+
+    private static final java.util.Base64.Encoder ENCODER = java.util.Base64.getEncoder();
+    private static final java.util.Base64.Decoder DECODER = java.util.Base64.getDecoder();
+
+    private Base64Platform() {
+        throw new AssertionError();
+    }
+
+    static String encodeToString(byte[] data, int offset, int length) {
+        if (offset == 0 && length == data.length)
+            return ENCODER.encodeToString(data);
+
+        ByteBuffer encoded = ENCODER.encode(ByteBuffer.wrap(data, offset, length));
+        return new String(encoded.array(), 0, encoded.remaining(), StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] decode(CharSequence text, int start, int end) {
+        if (text instanceof String && start == 0 && end == text.length()) {
+            try {
+                return DECODER.decode((String) text);
+            }
+            catch (IllegalArgumentException e) {
+                // whitespace or invalid data: the default codec knows which
+            }
+        }
+        return Base64.decode(DefaultBase64Codec.getInstance(), text, start, end);
+    }
+
+}
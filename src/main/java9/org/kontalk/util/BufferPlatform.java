@@ -0,0 +1,86 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Explicit release of direct buffers.
+ * This is the Java 9 version, using {@code Unsafe.invokeCleaner} from the
+ * jdk.unsupported module. Without it, buffers are left to the garbage
+ * collector.
+ * @author Daniele Ricci
+ */
+final class BufferPlatform {
+
+    /** Unsafe.invokeCleaner(ByteBuffer), bound to the Unsafe instance. */
+    private static final MethodHandle INVOKE_CLEANER;
+
+    static {
+        MethodHandle invokeCleaner;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            invokeCleaner = MethodHandles.lookup()
+                .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                .bindTo(field.get(null));
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private BufferPlatform() {
+        throw new AssertionError();
+    }
+
+    static boolean isSupported() {
+        return INVOKE_CLEANER != null;
+    }
+
+    /**
+     * Frees the memory of the given direct buffer right away, if possible.
+     * The buffer, and any view of it, must not be used anymore.
+     * @return false if the buffer is left to the garbage collector
+     */
+    static boolean free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null || !buffer.isDirect())
+            return false;
+
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+            return true;
+        }
+        catch (IllegalArgumentException e) {
+            // views of another buffer can't be freed
+            return false;
+        }
+        catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
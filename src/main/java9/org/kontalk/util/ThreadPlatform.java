@@ -0,0 +1,65 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+/**
+ * Thread related queries that depend on the Java version.
+ * This is the Java 9 version. Thread.isVirtual() (Java 21) is looked up
+ * through a method handle, so the class still runs on Java 9 to 20.
+ * @author Daniele Ricci
+ */
+final class ThreadPlatform {
+
+    /** Thread.isVirtual(), if available. */
+    private static final MethodHandle IS_VIRTUAL;
+
+    static {
+        MethodHandle isVirtual;
+        try {
+            isVirtual = MethodHandles.publicLookup()
+                .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        }
+        catch (ReflectiveOperationException e) {
+            isVirtual = null;
+        }
+        IS_VIRTUAL = isVirtual;
+    }
+
+    private ThreadPlatform() {
+        throw new AssertionError();
+    }
+
+    /** Returns true if the calling thread is a virtual thread. */
+    static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null)
+            return false;
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        }
+        catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
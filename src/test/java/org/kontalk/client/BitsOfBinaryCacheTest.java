@@ -0,0 +1,104 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link BitsOfBinaryCache}.
+ * @author Daniele Ricci
+ */
+public class BitsOfBinaryCacheTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Base64.setEncoder(Java7Base64Encoder.getInstance());
+    }
+
+    private static BitsOfBinary data(String text) throws Exception {
+        // 12 bytes: 16 Base64 characters
+        return new BitsOfBinary("text/plain", Base64.encodeToString(text.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        BitsOfBinaryCache cache = new BitsOfBinaryCache(1024);
+        BitsOfBinary data = data("sticker00001");
+        String cid = data.getCid();
+
+        assertNull(cache.get(cid));
+        assertTrue(cache.put(data));
+        assertTrue(cache.contains(cid));
+        assertEquals(16, cache.size());
+
+        BitsOfBinary cached = cache.get(cid);
+        assertEquals(cid, cached.getCid());
+        assertEquals("text/plain", cached.getType());
+        assertEquals("sticker00001", new String(cached.getContents(), "UTF-8"));
+
+        // same data again
+        assertTrue(cache.put(data));
+        assertEquals(16, cache.size());
+
+        cache.remove(cid);
+        assertFalse(cache.contains(cid));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCidMismatch() throws Exception {
+        BitsOfBinaryCache cache = new BitsOfBinaryCache(1024);
+        String otherCid = data("sticker00002").getCid();
+        BitsOfBinary forged = new BitsOfBinary("text/plain",
+            Base64.encodeToString("sticker00001".getBytes("UTF-8")), otherCid);
+
+        assertFalse(cache.put(forged));
+        assertFalse(cache.contains(otherCid));
+        assertFalse(cache.put(BitsOfBinary.reference(otherCid)));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        BitsOfBinaryCache cache = new BitsOfBinaryCache(40);
+        BitsOfBinary first = data("sticker00001");
+        BitsOfBinary second = data("sticker00002");
+        BitsOfBinary third = data("sticker00003");
+
+        assertTrue(cache.put(first));
+        assertTrue(cache.put(second));
+        // first is now the most recently used
+        assertNotNull(cache.get(first.getCid()));
+        assertTrue(cache.put(third));
+
+        assertEquals(32, cache.size());
+        assertTrue(cache.contains(first.getCid()));
+        assertFalse(cache.contains(second.getCid()));
+        assertTrue(cache.contains(third.getCid()));
+
+        // larger than the whole cache
+        assertFalse(new BitsOfBinaryCache(8).put(first));
+    }
+
+}
@@ -18,7 +18,24 @@
 
 package org.kontalk.client;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.StanzaError;
+import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -26,6 +43,11 @@ import static org.junit.Assert.*;
 
 public class BitsOfBinaryTest {
 
+    @BeforeClass
+    public static void setUp() {
+        Base64.setEncoder(Java7Base64Encoder.getInstance());
+    }
+
     @Test
     public void testToXml() {
         final String TEST_DATA = "AAAABBBCCCDDDD";
@@ -51,4 +73,184 @@ public class BitsOfBinaryTest {
         assertEquals(expectedWithType, actualWithType.toXML(null).toString());
     }
 
+    @Test
+    public void testStreaming() throws Exception {
+        // spans a few chunks, with a partial one at the end
+        for (int size : new int[] { 0, 1, 100 * 1024 + 2 }) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+
+            File file = File.createTempFile("bob", ".bin");
+            try {
+                try (OutputStream out = new FileOutputStream(file)) {
+                    out.write(data);
+                }
+
+                String expected = new BitsOfBinary("image/png", Base64.encodeToString(data))
+                    .toXML(null).toString();
+
+                BitsOfBinary cached = new BitsOfBinary("image/png", file);
+                assertFalse(cached.isStreaming());
+                assertEquals(expected, cached.toXML(null).toString());
+
+                BitsOfBinary streaming = new BitsOfBinary("image/png", file, true);
+                assertTrue(streaming.isStreaming());
+                XmlStringBuilder xml = streaming.toXML(null);
+                assertEquals(expected.length(), xml.length());
+
+                StringWriter writer = new StringWriter();
+                xml.write(writer, null);
+                assertEquals(expected, writer.toString());
+
+                writer = new StringWriter();
+                streaming.writeTo(writer);
+                assertEquals(expected, writer.toString());
+
+                assertTrue(Arrays.equals(data, streaming.getContents()));
+
+                // signcrypt streams it through writeTo
+                OpenPGPExtension.SignCryptElement element = new OpenPGPExtension.SignCryptElement(
+                    Collections.singletonList("alice@example.com"), new Date(), 0,
+                    Collections.<ExtensionElement>singletonList(streaming));
+                writer = new StringWriter();
+                element.writeTo(writer);
+                assertEquals(element.toXML(null).toString(), writer.toString());
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingUnreadable() throws Exception {
+        File file = File.createTempFile("bob", ".bin");
+        BitsOfBinary streaming = new BitsOfBinary("image/png", file, true);
+        assertTrue(file.delete());
+
+        // errors are found before serialization
+        assertNull(streaming.toXML(null));
+        try {
+            streaming.writeTo(new StringWriter());
+            fail("expected IOException");
+        }
+        catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testStreamingLazy() throws Exception {
+        byte[] data = new byte[100];
+        new Random(100).nextBytes(data);
+
+        File file = File.createTempFile("bob", ".bin");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        XmlStringBuilder xml = new BitsOfBinary("image/png", file, true).toXML(null);
+        assertNotNull(xml);
+
+        // contents are read on serialization, missing ones are sent as zeros
+        assertTrue(file.delete());
+        String expected = new BitsOfBinary("image/png", Base64.encodeToString(new byte[data.length]))
+            .toXML(null).toString();
+        assertEquals(expected, xml.toString());
+    }
+
+    @Test
+    public void testCid() throws Exception {
+        // SHA-1 of "abc"
+        final String cid = "sha1+a9993e364706816aba3e25717850c26c9cd0d89d@bob.xmpp.org";
+        final String contents = Base64.encodeToString("abc".getBytes("UTF-8"));
+
+        assertEquals(cid, BitsOfBinary.computeCid("abc".getBytes("UTF-8")));
+
+        BitsOfBinary data = new BitsOfBinary("text/plain", contents);
+        assertEquals(cid, data.getCid());
+        // computed cid is not included unless asked for
+        assertFalse(data.toXML(null).toString().contains("cid="));
+        assertTrue(data.withCid().toXML(null).toString().contains("cid='" + cid + "'"));
+
+        BitsOfBinary parsed = new BitsOfBinary.Provider()
+            .parse(PacketParserUtils.getParserFor(data.toXML(null).toString()));
+        assertEquals(cid, parsed.getCid());
+        assertFalse(parsed.isReference());
+        assertEquals("abc", new String(parsed.getContents(), "UTF-8"));
+    }
+
+    @Test
+    public void testReference() throws Exception {
+        final String cid = "sha1+a9993e364706816aba3e25717850c26c9cd0d89d@bob.xmpp.org";
+        BitsOfBinary ref = BitsOfBinary.reference(cid);
+        assertTrue(ref.isReference());
+        assertEquals("<data xmlns='urn:xmpp:bob' cid='" + cid + "'/>", ref.toXML(null).toString());
+
+        BitsOfBinary parsed = new BitsOfBinary.Provider()
+            .parse(PacketParserUtils.getParserFor(ref.toXML(null).toString()));
+        assertTrue(parsed.isReference());
+        assertEquals(cid, parsed.getCid());
+        assertNull(parsed.getContents());
+    }
+
+    @Test
+    public void testIQ() throws Exception {
+        BitsOfBinary data = new BitsOfBinary("text/plain", Base64.encodeToString("abc".getBytes("UTF-8")));
+        BitsOfBinaryIQ request = new BitsOfBinaryIQ(data.getCid());
+        String xml = request.toXML(null).toString();
+        assertTrue(xml, xml.contains("<data xmlns='urn:xmpp:bob' cid='" + data.getCid() + "'/>"));
+
+        IQ result = BitsOfBinaryIQ.createResult(request, data);
+        assertEquals(IQ.Type.result, result.getType());
+        xml = result.toXML(null).toString();
+        assertTrue(xml, xml.contains("<data xmlns='urn:xmpp:bob' cid='" + data.getCid() +
+            "' type='text/plain'>" + Base64.encodeToString("abc".getBytes("UTF-8")) + "</data>"));
+
+        BitsOfBinaryIQ parsed = new BitsOfBinaryIQ.Provider().parse(PacketParserUtils.getParserFor(
+            "<data xmlns='urn:xmpp:bob' cid='" + data.getCid() + "' type='text/plain'>" +
+            Base64.encodeToString("abc".getBytes("UTF-8")) + "</data>"));
+        assertEquals(data.getCid(), parsed.getCid());
+        assertEquals("text/plain", parsed.getData().getType());
+        assertEquals("abc", new String(parsed.getData().getContents(), "UTF-8"));
+    }
+
+    @Test
+    public void testIQUnavailable() throws Exception {
+        final String cid = "sha1+a9993e364706816aba3e25717850c26c9cd0d89d@bob.xmpp.org";
+        File file = File.createTempFile("bob", ".bin");
+        assertTrue(file.delete());
+        BitsOfBinary data = new BitsOfBinary("text/plain", file);
+
+        BitsOfBinaryIQ request = new BitsOfBinaryIQ(cid);
+        IQ result = BitsOfBinaryIQ.createResult(request, data);
+        assertEquals(IQ.Type.error, result.getType());
+        assertEquals(StanzaError.Condition.item_not_found, result.getError().getCondition());
+        assertEquals(IQ.Type.error, BitsOfBinaryIQ.createResult(request, null).getType());
+        assertEquals(IQ.Type.error, BitsOfBinaryIQ.createResult(request,
+            new BitsOfBinary("text/plain", file, true)).getType());
+
+        // never sent as an empty result
+        try {
+            new BitsOfBinaryIQ(data);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testIQSnapshot() throws Exception {
+        File file = File.createTempFile("bob", ".bin");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write("abc".getBytes("UTF-8"));
+        }
+        BitsOfBinary data = new BitsOfBinary("text/plain", file, true);
+        IQ result = BitsOfBinaryIQ.createResult(new BitsOfBinaryIQ(data.getCid()), data);
+        assertEquals(IQ.Type.result, result.getType());
+
+        // contents were read when the result was created
+        assertTrue(file.delete());
+        String xml = result.toXML(null).toString();
+        assertTrue(xml, xml.contains(">" + Base64.encodeToString("abc".getBytes("UTF-8")) + "</data>"));
+    }
+
 }
@@ -0,0 +1,139 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.kontalk.client.KontalkGroupManager.KontalkGroup;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link GroupRegistry}.
+ * @author Daniele Ricci
+ */
+public class GroupRegistryTest {
+
+    @Test
+    public void testGet() throws Exception {
+        GroupRegistry registry = new GroupRegistry(null);
+        Jid owner = JidCreate.from("david@localhost");
+
+        KontalkGroup group = registry.get("mad-group", owner);
+        assertSame(group, registry.get("mad-group", JidCreate.from("david@localhost")));
+        KontalkGroup other = registry.get("other-group", owner);
+        assertNotSame(group, other);
+        KontalkGroup otherOwner = registry.get("mad-group", JidCreate.from("golia@localhost"));
+        assertNotSame(group, otherOwner);
+
+        assertEquals(1, registry.getHitCount());
+        assertEquals(3, registry.getMissCount());
+        assertEquals(3, registry.size());
+        assertNotSame(other, otherOwner);
+    }
+
+    @Test
+    public void testExpunge() throws Exception {
+        GroupRegistry registry = new GroupRegistry(null);
+        Jid owner = JidCreate.from("david@localhost");
+        for (int i = 0; i < 100; i++)
+            registry.get("group" + i, owner);
+
+        KontalkGroup kept = registry.get("kept", owner);
+        for (int i = 0; i < 50 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, registry.size());
+        assertSame(kept, registry.get("kept", owner));
+    }
+
+    @Test
+    public void testHotGroups() throws Exception {
+        GroupRegistry registry = new GroupRegistry(null);
+        registry.setMaxHotGroups(2);
+        Jid owner = JidCreate.from("david@localhost");
+
+        int hash1 = System.identityHashCode(registry.get("group1", owner));
+        registry.get("group2", owner);
+        registry.get("group1", owner);
+        registry.get("group3", owner);
+        assertEquals(1, registry.getEvictionCount());
+
+        // group2 was the least recently used one
+        for (int i = 0; i < 50 && registry.size() > 2; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(2, registry.size());
+        assertEquals(hash1, System.identityHashCode(registry.get("group1", owner)));
+
+        registry.setMaxHotGroups(0);
+        assertEquals(3, registry.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentGet() throws Exception {
+        final GroupRegistry registry = new GroupRegistry(null);
+        registry.setMaxHotGroups(16);
+        final Jid owner = JidCreate.from("david@localhost");
+        final KontalkGroup[][] seen = new KontalkGroup[4][64];
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] threads = new Thread[seen.length];
+        for (int t = 0; t < threads.length; t++) {
+            final KontalkGroup[] groups = seen[t];
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            int n = i % groups.length;
+                            KontalkGroup group = registry.get("group" + n, owner);
+                            if (groups[n] == null)
+                                groups[n] = group;
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        // groups are held strongly by the arrays, everyone got the same ones
+        for (int n = 0; n < seen[0].length; n++) {
+            for (KontalkGroup[] groups : seen)
+                assertSame(seen[0][n], groups[n]);
+        }
+        assertEquals(64, registry.getMissCount());
+        assertEquals(40000 - 64, registry.getHitCount());
+    }
+
+}
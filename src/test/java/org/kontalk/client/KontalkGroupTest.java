@@ -18,11 +18,21 @@
 
 package org.kontalk.client;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
+import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.address.packet.MultipleAddresses;
 import org.junit.Test;
+import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
+import org.kontalk.client.OpenPGPExtension.SignCryptElement;
 
 import static org.junit.Assert.*;
 
@@ -62,4 +72,94 @@ public class KontalkGroupTest {
         assertFalse(group.checkRequest(cmd));
     }
 
+    @Test
+    public void testFanOut() throws Exception {
+        Jid[] members = new Jid[256];
+        List<String> jids = new ArrayList<>();
+        for (int i = 0; i < members.length; i++) {
+            members[i] = JidCreate.from("member" + i + "@localhost");
+            jids.add(members[i].toString());
+        }
+
+        SignCryptElement content = new SignCryptElement(jids, new Date(), 32,
+            Arrays.<ExtensionElement>asList(new Message.Body(null, "Hello group")));
+        KontalkGroupManager.KontalkGroup group = new KontalkGroupManager.KontalkGroup(null, "mad-group",
+            JidCreate.from("david@localhost"));
+        GroupFanOut fanOut = group.fanOut(members, content);
+
+        ByteBuffer shared = fanOut.getContent();
+        byte[] expected = new byte[shared.remaining()];
+        shared.get(expected);
+        SignCryptElement parsed = SignCryptElement.parse(new String(expected, "UTF-8"));
+        assertEquals(jids, parsed.getJIDs());
+
+        assertEquals(members.length, fanOut.getEnvelopes().size());
+        int index = 0;
+        for (GroupFanOut.Envelope envelope : fanOut.getEnvelopes()) {
+            assertEquals(members[index++], envelope.getRecipient());
+
+            // same bytes (and rpad) for everyone
+            ByteBuffer view = envelope.getContent();
+            assertTrue(view.isReadOnly());
+            assertEquals(ByteBuffer.wrap(expected), view);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            envelope.writeTo(out);
+            assertArrayEquals(expected, out.toByteArray());
+        }
+
+        Message message = new Message(group.getJid());
+        fanOut.addRouteExtension(message);
+        MultipleAddresses route = message.getExtension(MultipleAddresses.ELEMENT, MultipleAddresses.NAMESPACE);
+        assertSame(fanOut.getRouteExtension(), route);
+        assertEquals(members.length, route.getAddressesOfType(MultipleAddresses.Type.to).size());
+    }
+
+    @Test
+    public void testEditMembers() throws Exception {
+        Jid[] members = new Jid[5000];
+        for (int i = 0; i < members.length; i++)
+            members[i] = JidCreate.from("member" + i + "@localhost");
+
+        KontalkGroupManager.KontalkGroup group = new KontalkGroupManager.KontalkGroup(null, "mad-group",
+            JidCreate.from("david@localhost"));
+        assertNull(group.getMembers());
+        group.setMembers(members);
+        assertEquals(members.length, group.getMembers().size());
+
+        // remove only: no need to list the remaining members
+        Jid[] target = Arrays.copyOf(members, members.length - 2);
+        Message message = new Message();
+        GroupExtension ext = group.editMembers("Mad group", target, message);
+        assertSame(ext, GroupExtension.from(message));
+        assertEquals(2, ext.getMembers().size());
+        for (GroupExtension.Member member : ext.getMembers())
+            assertEquals(GroupExtension.Member.Operation.REMOVE, member.operation);
+        assertEquals(MemberSet.of(target), group.getMembers());
+
+        // nothing to do
+        assertNull(group.editMembers("Mad group", target, new Message()));
+
+        // subject only
+        ext = group.editMembers("Crazy group", target, new Message());
+        assertEquals(GroupExtension.Type.SET, ext.getType());
+        assertEquals("Crazy group", ext.getSubject());
+        assertTrue(ext.getMembers().isEmpty());
+        assertNull(group.editMembers("Crazy group", target, new Message()));
+
+        // add: new member needs to know everyone
+        Jid[] added = Arrays.copyOf(target, target.length + 1);
+        added[target.length] = JidCreate.from("newbie@localhost");
+        ext = group.editMembers("Crazy group", added, new Message());
+        int kept = 0;
+        for (GroupExtension.Member member : ext.getMembers()) {
+            if (member.operation == GroupExtension.Member.Operation.ADD)
+                assertEquals(added[target.length], member.jid);
+            else
+                kept++;
+        }
+        assertEquals(target.length, kept);
+        assertEquals(added.length, ext.getMembers().size());
+    }
+
 }
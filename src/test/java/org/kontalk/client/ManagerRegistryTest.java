@@ -0,0 +1,149 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link ManagerRegistry}.
+ * @author Daniele Ricci
+ */
+public class ManagerRegistryTest {
+
+    /** Connection that only knows about its own identity. */
+    static XMPPConnection newConnection() {
+        return (XMPPConnection) Proxy.newProxyInstance(XMPPConnection.class.getClassLoader(),
+            new Class<?>[] { XMPPConnection.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "connection@" + System.identityHashCode(proxy);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+            });
+    }
+
+    private static final class CountingRegistry extends ManagerRegistry<Object> {
+        final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        protected Object create(XMPPConnection connection) {
+            created.incrementAndGet();
+            return new Object();
+        }
+    }
+
+    @Test
+    public void testGet() {
+        CountingRegistry registry = new CountingRegistry();
+        XMPPConnection conn1 = newConnection();
+        XMPPConnection conn2 = newConnection();
+
+        Object manager = registry.get(conn1);
+        assertSame(manager, registry.get(conn1));
+        assertNotSame(manager, registry.get(conn2));
+        assertEquals(2, registry.created.get());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testExpunge() throws Exception {
+        CountingRegistry registry = new CountingRegistry();
+        for (int i = 0; i < 100; i++)
+            registry.get(newConnection());
+
+        XMPPConnection kept = newConnection();
+        Object manager = registry.get(kept);
+        for (int i = 0; i < 50 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, registry.size());
+        assertSame(manager, registry.get(kept));
+    }
+
+    @Test
+    public void testConcurrentCreate() throws Exception {
+        final CountingRegistry registry = new CountingRegistry();
+        final XMPPConnection[] connections = new XMPPConnection[32];
+        for (int i = 0; i < connections.length; i++)
+            connections[i] = newConnection();
+
+        final Object[][] seen = new Object[8][connections.length];
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[seen.length];
+        for (int t = 0; t < threads.length; t++) {
+            final Object[] managers = seen[t];
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < connections.length; i++)
+                            managers[i] = registry.get(connections[i]);
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        assertEquals(connections.length, registry.created.get());
+        for (int i = 0; i < connections.length; i++) {
+            for (Object[] managers : seen)
+                assertSame(seen[0][i], managers[i]);
+        }
+    }
+
+    @Test
+    public void testGroupManager() {
+        XMPPConnection connection = newConnection();
+        KontalkGroupManager manager = KontalkGroupManager.getInstanceFor(connection);
+        assertSame(manager, KontalkGroupManager.getInstanceFor(connection));
+        assertNotSame(manager, KontalkGroupManager.getInstanceFor(newConnection()));
+    }
+
+}
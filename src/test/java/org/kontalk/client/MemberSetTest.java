@@ -0,0 +1,66 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import org.junit.Test;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link MemberSet}.
+ * @author Daniele Ricci
+ */
+public class MemberSetTest {
+
+    private static Jid[] jids(String... jids) throws Exception {
+        Jid[] result = new Jid[jids.length];
+        for (int i = 0; i < jids.length; i++)
+            result[i] = JidCreate.from(jids[i] + "@localhost");
+        return result;
+    }
+
+    @Test
+    public void testOf() throws Exception {
+        MemberSet set = MemberSet.of(jids("charlie", "alpha", "beta", "alpha"));
+        assertEquals(3, set.size());
+        assertArrayEquals(jids("alpha", "beta", "charlie"), set.toArray());
+        assertTrue(set.contains(JidCreate.from("beta@localhost")));
+        assertFalse(set.contains(JidCreate.from("delta@localhost")));
+        assertEquals(set, MemberSet.of(jids("alpha", "beta", "charlie")));
+        assertSame(MemberSet.EMPTY, MemberSet.of());
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        MemberSet from = MemberSet.of(jids("alpha", "beta", "charlie", "echo"));
+        MemberSet.Delta delta = from.diff(MemberSet.of(jids("foxtrot", "beta", "delta", "echo")));
+        assertArrayEquals(jids("delta", "foxtrot"), delta.getAdded());
+        assertArrayEquals(jids("alpha", "charlie"), delta.getRemoved());
+        assertArrayEquals(jids("beta", "echo"), delta.getKept());
+        assertFalse(delta.isEmpty());
+
+        assertTrue(from.diff(from).isEmpty());
+        assertArrayEquals(from.toArray(), MemberSet.EMPTY.diff(from).getAdded());
+        assertArrayEquals(from.toArray(), from.diff(MemberSet.EMPTY).getRemoved());
+    }
+
+}
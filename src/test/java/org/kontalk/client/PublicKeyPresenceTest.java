@@ -18,11 +18,13 @@
 
 package org.kontalk.client;
 
+import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.XmlStringBuilder;
 import org.jivesoftware.smack.util.stringencoder.Base64;
 import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
 import org.junit.Before;
 import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
 
 import static org.junit.Assert.*;
 
@@ -90,4 +92,17 @@ public class PublicKeyPresenceTest {
         assertNull(p.getKey());
         assertEquals(FINGERPRINT, p.getFingerprint());
     }
+
+    @Test
+    public void testParseMalformedKey() throws Exception {
+        XmlPullParser parser = PacketParserUtils.getParserFor(
+            "<" + PublicKeyPresence.ELEMENT_NAME + " xmlns='" + PublicKeyPresence.NAMESPACE + "'>" +
+            "<key>!!!notbase64***</key><print>" + FINGERPRINT + "</print>" +
+            "</" + PublicKeyPresence.ELEMENT_NAME + ">");
+
+        PublicKeyPresence p = new PublicKeyPresence.Provider().parse(parser);
+        assertNull(p.getKey());
+        assertEquals(FINGERPRINT, p.getFingerprint());
+    }
+
 }
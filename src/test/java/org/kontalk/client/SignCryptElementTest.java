@@ -19,7 +19,11 @@
 package org.kontalk.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -31,6 +35,7 @@ import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.StandardExtensionElement;
 import org.junit.Test;
 import org.kontalk.client.OpenPGPExtension.SignCryptElement;
+import org.kontalk.util.PaddingPolicy;
 
 /**
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
@@ -72,6 +77,21 @@ public class SignCryptElementTest {
         assertEquals(XML, xml);
     }
 
+    @Test
+    public void testWriteTo() throws Exception {
+        SignCryptElement element = new SignCryptElement(JIDS, TIMESTAMP, 0, PAYLOAD_EXTENSIONS);
+        StringWriter writer = new StringWriter();
+        element.writeTo(writer);
+        assertEquals(XML, writer.toString());
+
+        List<ExtensionElement> payload = Arrays.<ExtensionElement>asList(
+            new Message.Body(null, "\u00e8 \ud83d\ude00 <&>"), STANDARD_EXTENSION);
+        element = new SignCryptElement(JIDS, TIMESTAMP, 0, payload);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        element.writeTo(out);
+        assertEquals(element.toXML(null).toString(), out.toString("UTF-8"));
+    }
+
     @Test
     public void testParse() throws Exception {
         SignCryptElement parsed = SignCryptElement.parse(XML);
@@ -111,4 +131,94 @@ public class SignCryptElementTest {
         assertEquals(BODY_EXTENSION.getMessage(), ((Message.Body) parsed.getPayload().get(1)).getMessage());
     }
 
+    @Test
+    public void testParseLazy() throws Exception {
+        SignCryptElement parsed = SignCryptElement.parse(XML, true);
+        assertEquals(JIDS, parsed.getJIDs());
+        assertEquals(TIMESTAMP, parsed.getTimeStamp());
+        assertEquals(PAYLOAD_EXTENSIONS.size(), parsed.getPayload().size());
+
+        assertEquals(STANDARD_EXTENSION.getClass(), parsed.getPayload().get(0).getClass());
+        assertEquals(STANDARD_EXTENSION.getNamespace(), parsed.getPayload().get(0).getNamespace());
+        assertEquals(BODY_EXTENSION.getMessage(), ((Message.Body) parsed.getPayload().get(1)).getMessage());
+        assertEquals(XML, parsed.toXML(null).toString());
+
+        // inherited namespaces, nested and self-closing elements, markup in between
+        String xml = "<?xml version='1.0'?><signcrypt xmlns='urn:xmpp:openpgp:0' xmlns:k='urn:kontalk'>" +
+            "<to jid='alice@example.com'/>" +
+            "<time stamp='2014-07-10T15:06:00.000+00:00'/>" +
+            "<payload><!-- <fake> -->" +
+            "<k:test a='/>'><inner><![CDATA[</k:test>]]></inner></k:test>" +
+            "<empty/>" +
+            "</payload>" +
+            "</signcrypt>";
+        parsed = SignCryptElement.parse(xml, true);
+        assertEquals(Arrays.asList("alice@example.com"), parsed.getJIDs());
+        assertEquals(2, parsed.getPayload().size());
+        assertEquals("test", parsed.getPayload().get(0).getElementName());
+        assertEquals("urn:kontalk", parsed.getPayload().get(0).getNamespace());
+        assertEquals("empty", parsed.getPayload().get(1).getElementName());
+        assertEquals("urn:xmpp:openpgp:0", parsed.getPayload().get(1).getNamespace());
+
+        // no payload
+        parsed = SignCryptElement.parse(XML.replaceAll("<payload>.*</payload>", "<payload/>"), true);
+        assertTrue(parsed.getPayload().isEmpty());
+    }
+
+    @Test
+    public void testParseLazyInvalidPayload() throws Exception {
+        String xml = XML.replace("test_body", "&bogus;");
+        try {
+            SignCryptElement.parse(xml);
+            fail("invalid payload was parsed");
+        }
+        catch (Exception expected) {
+        }
+
+        // only checked on access
+        SignCryptElement parsed = SignCryptElement.parse(xml, true);
+        assertEquals(JIDS, parsed.getJIDs());
+        assertEquals(TIMESTAMP, parsed.getTimeStamp());
+        parsed.getPayload().get(0);
+        try {
+            parsed.getPayload().get(1);
+            fail("invalid payload was parsed");
+        }
+        catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testPadding() throws Exception {
+        // multi-byte text: padding must be sized on the encoded bytes
+        List<ExtensionElement> payload = Arrays.<ExtensionElement>asList(
+            new Message.Body(null, "Hello \u00e8\u4e16\u754c \ud83d\ude00"));
+        for (int bucket : new int[] { 100, 256, 1000 }) {
+            SignCryptElement element = new SignCryptElement(JIDS, TIMESTAMP, PaddingPolicy.bucketed(bucket),
+                payload);
+
+            String xml = element.toXML(null).toString();
+            assertEquals(0, xml.getBytes("UTF-8").length % bucket);
+            assertTrue(xml.contains("<rpad>"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            element.writeTo(out);
+            assertEquals(0, out.size() % bucket);
+
+            SignCryptElement parsed = SignCryptElement.parse(out.toString("UTF-8"));
+            assertEquals(JIDS, parsed.getJIDs());
+            assertEquals(payload.size(), parsed.getPayload().size());
+        }
+
+        // fixed padding doesn't depend on the content
+        SignCryptElement element = new SignCryptElement(JIDS, TIMESTAMP, PaddingPolicy.fixed(16),
+            PAYLOAD_EXTENSIONS);
+        StringWriter writer = new StringWriter();
+        element.writeTo(writer);
+        String xml = writer.toString();
+        String rpad = xml.substring(xml.indexOf("<rpad>") + 6, xml.indexOf("</rpad>"));
+        assertEquals(16, rpad.length());
+        assertEquals(XML, xml.replace("<rpad>" + rpad + "</rpad>", ""));
+    }
+
 }
@@ -0,0 +1,128 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link Base64} and {@link DefaultBase64Codec}.
+ * @author Daniele Ricci
+ */
+public class Base64Test {
+
+    private static final Java7Base64Encoder REFERENCE = Java7Base64Encoder.getInstance();
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(42);
+        for (int length = 0; length < 200; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            String encoded = Base64.encodeToString(data);
+            assertEquals(REFERENCE.encodeToString(data, 0, data.length), encoded);
+            assertEquals(Base64.getCodec().encodedLength(length), encoded.length());
+            assertEquals(length, Base64.decodedLength(encoded));
+            assertTrue(Arrays.equals(data, Base64.decode(encoded)));
+        }
+    }
+
+    @Test
+    public void testOffsets() {
+        byte[] data = "__Hello world__".getBytes();
+        assertEquals("SGVsbG8gd29ybGQ=", Base64.encodeToString(data, 2, 11));
+
+        String text = "key:SGVsbG8gd29ybGQ=;";
+        assertEquals("Hello world", new String(Base64.decode(text, 4, text.length() - 1)));
+
+        byte[] out = new byte[20];
+        int count = Base64.getCodec().decode(text, 4, text.length() - 1, out, 5);
+        assertEquals(11, count);
+        assertEquals("Hello world", new String(out, 5, count));
+    }
+
+    @Test
+    public void testWhitespace() {
+        assertEquals("Hello world", new String(Base64.decode(" SGVs\r\nbG8g\td29y\nbGQ= \n")));
+        assertEquals(11, Base64.decodedLength("SGVs\r\nbG8gd29ybGQ=\n"));
+        // unpadded input is accepted
+        assertEquals("Hello world", new String(Base64.decode("SGVsbG8gd29ybGQ")));
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String text : new String[] { "SGVsbG8*", "S", "SGVsb", "SG===", "S===", "SGVsbG8=X", "SGVs\u00e8" }) {
+            try {
+                Base64.decode(text);
+                fail("decoded " + text);
+            }
+            catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testAppendable() throws Exception {
+        byte[] data = new byte[20000];
+        new Random(7).nextBytes(data);
+        String expected = Base64.encodeToString(data);
+
+        StringBuilder builder = new StringBuilder("x");
+        Base64.encode(data, 0, data.length, builder);
+        assertEquals("x" + expected, builder.toString());
+
+        StringWriter writer = new StringWriter();
+        Base64.encode(data, 0, data.length, writer);
+        assertEquals(expected, writer.toString());
+
+        CharBuffer buffer = CharBuffer.allocate(expected.length());
+        Base64.encode(data, 0, data.length, buffer);
+        buffer.flip();
+        assertEquals(expected, buffer.toString());
+    }
+
+    @Test
+    public void testByteBuffer() {
+        byte[] data = new byte[1000];
+        new Random(3).nextBytes(data);
+        String encoded = Base64.encodeToString(data);
+
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(1010), ByteBuffer.allocateDirect(1010) }) {
+            buffer.position(10);
+            assertEquals(data.length, Base64.decode(encoded, buffer));
+            assertEquals(1010, buffer.position());
+
+            byte[] out = new byte[data.length];
+            buffer.position(10);
+            buffer.get(out);
+            assertTrue(Arrays.equals(data, out));
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.kontalk.client.E2EEncryption;
+import org.kontalk.client.OpenPGPEncryptedMessage;
+import org.kontalk.client.OpenPGPExtension;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link BinaryPayload}.
+ * @author Daniele Ricci
+ */
+public class BinaryPayloadTest {
+
+    private static final byte[] DATA = { 0, 1, 2, (byte) 0xfe, (byte) 0xff };
+    private static final String ENCODED = "AAEC/v8=";
+
+    @BeforeClass
+    public static void setUp() {
+        Base64.setEncoder(Java7Base64Encoder.getInstance());
+    }
+
+    @Test
+    public void testFromBytes() {
+        BinaryPayload payload = BinaryPayload.fromBytes(DATA);
+        assertTrue(payload.hasBytes());
+        assertFalse(payload.hasBase64());
+        assertSame(DATA, payload.getBytes());
+
+        String encoded = payload.getBase64();
+        assertEquals(ENCODED, encoded);
+        assertTrue(payload.hasBase64());
+        assertSame(encoded, payload.getBase64());
+    }
+
+    @Test
+    public void testFromBase64() {
+        BinaryPayload payload = BinaryPayload.fromBase64(ENCODED);
+        assertFalse(payload.hasBytes());
+        assertSame(ENCODED, payload.getBase64());
+
+        byte[] data = payload.getBytes();
+        assertTrue(Arrays.equals(DATA, data));
+        assertSame(data, payload.getBytes());
+    }
+
+    @Test
+    public void testConcurrentDecode() throws Exception {
+        final BinaryPayload payload = BinaryPayload.fromBase64(ENCODED);
+        final byte[][] results = new byte[8][];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    results[index] = payload.getBytes();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        // everyone got the same decoded instance
+        for (byte[] result : results)
+            assertSame(results[0], result);
+    }
+
+    @Test
+    public void testForwardWithoutDecoding() throws Exception {
+        String xml = "<e2e xmlns='urn:ietf:params:xml:ns:xmpp-e2e'>" + ENCODED + "</e2e>";
+        E2EEncryption e2e = new E2EEncryption.Provider().parse(PacketParserUtils.getParserFor(xml));
+        assertEquals(xml, e2e.toXML(null).toString());
+        assertFalse(e2e.getPayload().hasBytes());
+
+        xml = "<x xmlns='jabber:x:encrypted'><![CDATA[" + ENCODED + "]]></x>";
+        OpenPGPEncryptedMessage encrypted = new OpenPGPEncryptedMessage.Provider()
+            .parse(PacketParserUtils.getParserFor(xml));
+        assertEquals(xml, encrypted.toXML(null).toString());
+        assertFalse(encrypted.getPayload().hasBytes());
+        assertTrue(Arrays.equals(DATA, encrypted.getData()));
+    }
+
+    @Test
+    public void testDirect() throws Exception {
+        // larger than a chunk, wrapped like a PEM file
+        byte[] data = new byte[50000];
+        new Random(42).nextBytes(data);
+        String encoded = Base64.encodeToString(data);
+        StringBuilder wrapped = new StringBuilder();
+        for (int i = 0; i < encoded.length(); i += 64)
+            wrapped.append(encoded, i, Math.min(i + 64, encoded.length())).append("\r\n");
+
+        for (String text : new String[] { encoded, wrapped.toString(), ENCODED, "" }) {
+            BinaryPayload payload = BinaryPayload.directFromBase64(text);
+            assertTrue(payload.isDirect());
+            assertFalse(payload.hasBase64());
+
+            byte[] expected = Base64.decode(text.replaceAll("\\s", ""));
+            assertEquals(expected.length, payload.length());
+            assertTrue(Arrays.equals(expected, payload.getBytes()));
+            assertEquals(Base64.encodeToString(expected), payload.getBase64());
+
+            ByteBuffer view = payload.getBuffer();
+            assertTrue(view.isDirect());
+            assertTrue(view.isReadOnly());
+            assertEquals(expected.length, view.remaining());
+        }
+
+        BinaryPayload payload = BinaryPayload.directFromBytes(DATA);
+        assertTrue(payload.isDirect());
+        assertEquals(ENCODED, payload.getBase64());
+        // encoded once only
+        assertTrue(payload.hasBase64());
+        assertSame(payload.getBase64(), payload.getBase64());
+        assertNotSame(payload.getBytes(), payload.getBytes());
+    }
+
+    @Test
+    public void testDirectProviders() throws Exception {
+        String xml = "<x xmlns='jabber:x:encrypted'><![CDATA[" + ENCODED + "]]></x>";
+        OpenPGPEncryptedMessage encrypted = new OpenPGPEncryptedMessage.Provider(true)
+            .parse(PacketParserUtils.getParserFor(xml));
+        assertTrue(encrypted.getPayload().isDirect());
+        assertEquals(xml, encrypted.toXML(null).toString());
+        // decoded on first access only, then the text is dropped
+        assertFalse(encrypted.getPayload().hasBytes());
+        assertTrue(Arrays.equals(DATA, encrypted.getData()));
+        assertTrue(encrypted.getPayload().hasBytes());
+        assertFalse(encrypted.getPayload().hasBase64());
+        assertEquals(xml, encrypted.toXML(null).toString());
+
+        xml = "<x xmlns='jabber:x:encrypted'><![CDATA[not base64!]]></x>";
+        encrypted = new OpenPGPEncryptedMessage.Provider(true)
+            .parse(PacketParserUtils.getParserFor(xml));
+        assertNull(encrypted.getData());
+
+        xml = "<openpgp xmlns='urn:xmpp:openpgp:0'>" + ENCODED + "</openpgp>";
+        OpenPGPExtension openpgp = new OpenPGPExtension.Provider(true)
+            .parse(PacketParserUtils.getParserFor(xml));
+        assertTrue(openpgp.getPayload().isDirect());
+        assertEquals(ENCODED, openpgp.getData());
+        assertEquals(xml, openpgp.toXML(null).toString());
+    }
+
+    @Test
+    public void testRelease() {
+        BinaryPayload payload = BinaryPayload.directFromBytes(DATA);
+        assertEquals(DATA.length, payload.getBuffer().remaining());
+        // views must not be used anymore after this
+        payload.release();
+        assertTrue(payload.isReleased());
+        assertFalse(payload.isDirect());
+        // releasing twice is harmless
+        payload.release();
+
+        try {
+            payload.getBytes();
+            fail("released payload was readable");
+        }
+        catch (IllegalStateException expected) {
+        }
+
+        // not owned by the payload, so not freed
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length);
+        buffer.put(DATA).flip();
+        payload = BinaryPayload.directFromBuffer(buffer);
+        payload.release();
+        assertEquals(DATA[1], buffer.get(1));
+
+        payload = BinaryPayload.fromBase64(ENCODED);
+        payload.release();
+        try {
+            payload.getBase64();
+            fail("released payload was readable");
+        }
+        catch (IllegalStateException expected) {
+        }
+    }
+
+}
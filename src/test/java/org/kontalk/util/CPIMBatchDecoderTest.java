@@ -0,0 +1,147 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link CPIMBatchDecoder}.
+ * @author Daniele Ricci
+ */
+public class CPIMBatchDecoderTest {
+
+    private static final String FROM = "alice@example.com";
+    private static final String[] TO = { "bob@example.com" };
+    private static final Date DATE = new Date(1408912505000L);
+
+    @Test
+    public void testDecode() throws Exception {
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CPIMMessage m;
+            if (i % 10 == 3) {
+                payloads.add(("invalid " + i).getBytes(CPIMMessage.CHARSET));
+                continue;
+            }
+            else if (i % 2 == 0) {
+                m = new CPIMMessage(FROM, TO, DATE, XMPPParserUtils.XML_XMPP_TYPE,
+                    "<xmpp><message xmlns='jabber:client' id='msg" + i + "'>" +
+                    "<body>body " + i + "</body></message></xmpp>");
+            }
+            else {
+                m = new CPIMMessage(FROM, TO, DATE, "body " + i);
+            }
+            payloads.add(m.toByteArray());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertResults(new CPIMBatchDecoder(executor, 7).decode(payloads));
+            assertResults(new CPIMBatchDecoder().decode(payloads));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedTask() throws Exception {
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            payloads.add(new CPIMMessage(FROM, TO, DATE, "body " + i).toByteArray());
+
+        // tasks are cancelled instead of being run
+        ExecutorService executor = new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                ((Future<?>) command).cancel(false);
+            }
+
+            @Override
+            public void shutdown() {
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return false;
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return false;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return true;
+            }
+        };
+
+        List<CPIMBatchDecoder.Result> results = new CPIMBatchDecoder(executor, 3).decode(payloads);
+        assertEquals(10, results.size());
+        for (CPIMBatchDecoder.Result r : results) {
+            assertFalse(r.isSuccessful());
+            assertTrue(r.getError() instanceof CancellationException);
+            assertNull(r.getMessage());
+        }
+    }
+
+    private static void assertResults(List<CPIMBatchDecoder.Result> results) {
+        assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            CPIMBatchDecoder.Result r = results.get(i);
+            if (i % 10 == 3) {
+                assertFalse(r.isSuccessful());
+                assertTrue(r.getError() instanceof ParseException);
+                assertNull(r.getMessage());
+            }
+            else if (i % 2 == 0) {
+                assertTrue(r.isSuccessful());
+                assertEquals("msg" + i, r.getStanza().getStanzaId());
+                assertEquals("body " + i, r.getStanza().getBody());
+            }
+            else {
+                assertTrue(r.isSuccessful());
+                assertNull(r.getStanza());
+                assertEquals("body " + i, r.getMessage().getBody().toString());
+            }
+        }
+    }
+
+}
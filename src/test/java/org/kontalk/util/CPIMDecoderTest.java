@@ -0,0 +1,118 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Date;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link CPIMDecoder}.
+ * @author Daniele Ricci
+ */
+public class CPIMDecoderTest {
+
+    private static final String INPUT =
+        "Content-type: Message/CPIM\n"+
+        "\n" +
+        "From: alice@example.com\n" +
+        "To: alice@example.com; bob@example.com\n" +
+        "DateTime: 2014-08-24T20:35:05+00:00\n" +
+        "\n" +
+        "Content-type: text/plain; charset=utf-8\n" +
+        "\n" +
+        "TEST BODY\n\u00e8\u20ac";
+
+    private static class Collector implements CPIMDecoder.Listener {
+        String from;
+        String[] to;
+        Date date;
+        String mime;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int headerEvents;
+        boolean ended;
+
+        @Override
+        public void onHeaders(String from, String[] to, Date date, String mime) {
+            assertEquals("body received before headers.", 0, body.size());
+            this.from = from;
+            this.to = to;
+            this.date = date;
+            this.mime = mime;
+            headerEvents++;
+        }
+
+        @Override
+        public void onBody(ByteBuffer chunk) {
+            assertEquals("headers not received.", 1, headerEvents);
+            while (chunk.hasRemaining())
+                body.write(chunk.get());
+        }
+
+        @Override
+        public void onEnd() {
+            ended = true;
+        }
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        assertDecode(INPUT);
+        assertDecode(INPUT.replace("\n", "\r\n"));
+        assertDecode(INPUT.replace("\n", "\r"));
+        assertDecode(INPUT.substring(0, INPUT.indexOf("Content-type: text")));
+        assertDecode(INPUT.substring(0, INPUT.indexOf("\nTo:")));
+    }
+
+    @Test(expected = ParseException.class)
+    public void testInvalidType() throws Exception {
+        CPIMDecoder decoder = new CPIMDecoder(new Collector());
+        decoder.decode(INPUT.replace("Message/CPIM", "text/plain").getBytes(CPIMMessage.CHARSET));
+        decoder.finish();
+    }
+
+    /** Feeds the input in chunks of every size and compares the result with {@link CPIMMessage#parse(String)}. */
+    private static void assertDecode(String input) throws Exception {
+        CPIMMessage expected = CPIMMessage.parse(input);
+        byte[] data = input.getBytes(CPIMMessage.CHARSET);
+
+        for (int chunkSize = 1; chunkSize <= data.length; chunkSize++) {
+            Collector c = new Collector();
+            CPIMDecoder decoder = new CPIMDecoder(c);
+            for (int i = 0; i < data.length; i += chunkSize)
+                decoder.decode(data, i, Math.min(chunkSize, data.length - i));
+            decoder.finish();
+
+            assertEquals("headers not received once.", 1, c.headerEvents);
+            assertTrue("end not received.", c.ended);
+            assertEquals("From attribute not matching.", expected.getFrom(), c.from);
+            assertArrayEquals("To attribute not matching.", expected.getTo(), c.to);
+            assertEquals("Date attribute not matching.", expected.getDate(), c.date);
+            assertEquals("Mime attribute not matching.", expected.getMime(), c.mime);
+            assertEquals("Body not matching.", expected.getBody().toString(),
+                new String(c.body.toByteArray(), CPIMMessage.CHARSET));
+        }
+    }
+}
@@ -18,6 +18,9 @@
 
 package org.kontalk.util;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Date;
 
 import org.junit.Test;
@@ -69,4 +72,196 @@ public class CPIMMessageTest {
         assertEquals("Date attribute not matching.", DATE, m.getDate());
         assertEquals("Body not matching.", BODY, m.getBody());
     }
+
+    @Test
+    public void testParseBytes() throws Exception {
+        assertSameParse(OUTPUT);
+        assertSameParse(OUTPUT.replace("\n", "\r\n"));
+        assertSameParse(OUTPUT.replace("\n", "\r"));
+        assertSameParse(OUTPUT.replace("TEST BODY", "TEST\r\nBODY \u00e8\u20ac\n\n"));
+        assertSameParse(OUTPUT.replace("To: ", "X-Other: value\nto :  "));
+        assertSameParse(OUTPUT.replace("Content-type: text/plain; charset=utf-8\n\n", ""));
+        assertSameParse(OUTPUT.substring(0, OUTPUT.indexOf("DateTime")));
+    }
+
+    @Test
+    public void testParseByteBuffer() throws Exception {
+        byte[] data = OUTPUT.getBytes(CPIMMessage.CHARSET);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 4);
+        direct.put(new byte[2]).put(data).put(new byte[2]);
+        direct.position(2).limit(2 + data.length);
+        assertParsed(CPIMMessage.parse(direct));
+        assertEquals("buffer position modified.", 2, direct.position());
+
+        byte[] padded = new byte[data.length + 4];
+        System.arraycopy(data, 0, padded, 2, data.length);
+        assertParsed(CPIMMessage.parse(padded, 2, data.length));
+    }
+
+    @Test(expected = ParseException.class)
+    public void testParseBytesInvalidType() throws Exception {
+        CPIMMessage.parse(OUTPUT.replace("Message/CPIM", "text/plain")
+            .getBytes(CPIMMessage.CHARSET));
+    }
+
+    @Test
+    public void testParseLazy() throws Exception {
+        byte[] data = OUTPUT.replace(BODY, "TEST BODY \u00e8").getBytes(CPIMMessage.CHARSET);
+        CPIMMessage m = CPIMMessage.parseLazy(data);
+        assertEquals("From attribute not matching.", FROM, m.getFrom());
+        assertArrayEquals("To attribute not matching.", TO, m.getTo());
+        assertEquals("Date attribute not matching.", DATE, m.getDate());
+
+        ByteBuffer body = m.getBodyBuffer();
+        assertTrue("body buffer not read-only.", body.isReadOnly());
+        byte[] expected = "TEST BODY \u00e8".getBytes(CPIMMessage.CHARSET);
+        assertEquals("Body not matching.", ByteBuffer.wrap(expected), body);
+
+        assertEquals("Body not matching.", "TEST BODY \u00e8", m.getBody().toString());
+        assertSame("Body decoded twice.", m.getBody(), m.getBody());
+        assertEquals("generated CPIM data not matching.",
+            new String(data, CPIMMessage.CHARSET), m.toString());
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+        String[] bodies = {
+            BODY,
+            "",
+            "\u00e8\u20ac \ud83d\ude00 end",
+            "lone \ud83d surrogate \ude00",
+        };
+
+        for (String body : bodies) {
+            CPIMMessage m = new CPIMMessage(FROM, TO, DATE, MIME, body);
+            byte[] expected = m.toString().getBytes(CPIMMessage.CHARSET);
+
+            assertEquals("encoded length not matching.", expected.length, m.getEncodedLength());
+            assertArrayEquals("encoded data not matching.", expected, m.toByteArray());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            m.writeTo(out);
+            assertArrayEquals("encoded data not matching.", expected, out.toByteArray());
+
+            ByteBuffer buf = ByteBuffer.allocateDirect(m.getEncodedLength());
+            m.writeTo(buf);
+            assertFalse("buffer not filled.", buf.hasRemaining());
+            buf.flip();
+            assertEquals("encoded data not matching.", ByteBuffer.wrap(expected), buf);
+        }
+    }
+
+    @Test
+    public void testWriteToLazy() throws Exception {
+        byte[] data = OUTPUT.getBytes(CPIMMessage.CHARSET);
+        CPIMMessage m = CPIMMessage.parseLazy(data);
+        assertEquals("encoded length not matching.", data.length, m.getEncodedLength());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        m.writeTo(out);
+        assertArrayEquals("encoded data not matching.", data, out.toByteArray());
+        assertArrayEquals("encoded data not matching.", data, m.toByteArray());
+    }
+
+    @Test
+    public void testTemplate() throws Exception {
+        CPIMTemplate template = new CPIMTemplate(FROM, TO, MIME);
+        String[] bodies = { BODY, "\u00e8\u20ac \ud83d\ude00" };
+
+        for (String body : bodies) {
+            Date date = new Date(DATE.getTime() + body.length() * 1000L);
+            byte[] expected = new CPIMMessage(FROM, TO, date, MIME, body).toByteArray();
+
+            assertEquals("encoded length not matching.", expected.length,
+                template.getEncodedLength(date, body));
+            assertArrayEquals("encoded data not matching.", expected,
+                template.toByteArray(date, body));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            template.writeTo(out, date, body);
+            assertArrayEquals("encoded data not matching.", expected, out.toByteArray());
+
+            ByteBuffer buf = ByteBuffer.allocate(expected.length);
+            template.writeTo(buf, date, body);
+            assertArrayEquals("encoded data not matching.", expected, buf.array());
+
+            assertArrayEquals("encoded data not matching.", expected,
+                template.newMessage(date, body).toByteArray());
+        }
+    }
+
+    @Test
+    public void testBinaryBody() throws Exception {
+        // not valid UTF-8
+        byte[] body = { (byte) 0x89, 'P', 'N', 'G', 0, (byte) 0xff, (byte) 0xc3 };
+        CPIMMessage m = new CPIMMessage(FROM, TO, DATE, "image/png", body);
+        assertTrue("body not binary.", m.isBinary());
+
+        byte[] data = m.toByteArray();
+        assertEquals("encoded length not matching.", data.length, m.getEncodedLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // no charset for binary bodies
+        out.write(OUTPUT.replace(MIME + "; charset=utf-8", "image/png").replace(BODY, "")
+            .getBytes(CPIMMessage.CHARSET));
+        out.write(body);
+        assertArrayEquals("encoded data not matching.", out.toByteArray(), data);
+
+        CPIMMessage parsed = CPIMMessage.parse(data);
+        assertTrue("body not binary.", parsed.isBinary());
+        assertEquals("Mime attribute not matching.", "image/png", parsed.getMime());
+        assertEquals("Body not matching.", ByteBuffer.wrap(body), parsed.getBodyBuffer());
+        assertArrayEquals("encoded data not matching.", data, parsed.toByteArray());
+
+        // text types are still decoded
+        assertFalse("body is binary.", CPIMMessage.parse(OUTPUT.getBytes(CPIMMessage.CHARSET)).isBinary());
+
+        CPIMTemplate template = new CPIMTemplate(FROM, TO, "image/png");
+        ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+        assertArrayEquals("encoded data not matching.", data,
+            template.toByteArray(DATE, bodyBuffer));
+        assertEquals("encoded length not matching.", data.length,
+            template.getEncodedLength(DATE, bodyBuffer));
+
+        ByteBuffer buf = ByteBuffer.allocate(data.length);
+        template.writeTo(buf, DATE, bodyBuffer);
+        assertArrayEquals("encoded data not matching.", data, buf.array());
+        assertEquals("body position modified.", 0, bodyBuffer.position());
+
+        // same second, cached date
+        buf.clear();
+        template.writeTo(buf, new Date(DATE.getTime() + 999), bodyBuffer);
+        assertArrayEquals("encoded data not matching.", data, buf.array());
+    }
+
+    @Test
+    public void testNullBody() throws Exception {
+        CPIMMessage m = new CPIMMessage(FROM, TO, DATE, MIME, (CharSequence) null);
+        String expected = OUTPUT.replace(BODY, "null");
+        assertEquals("encoded data not matching.", expected, m.toString());
+        assertArrayEquals("encoded data not matching.", expected.getBytes(CPIMMessage.CHARSET), m.toByteArray());
+        assertEquals("encoded length not matching.", expected.length(), m.getEncodedLength());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        m.writeTo(out);
+        assertArrayEquals("encoded data not matching.", expected.getBytes(CPIMMessage.CHARSET), out.toByteArray());
+    }
+
+    private static void assertParsed(CPIMMessage m) {
+        assertEquals("From attribute not matching.", FROM, m.getFrom());
+        assertArrayEquals("To attribute not matching.", TO, m.getTo());
+        assertEquals("Mime attribute not matching.", MIME, m.getMime());
+        assertEquals("Date attribute not matching.", DATE, m.getDate());
+        assertEquals("Body not matching.", BODY, m.getBody().toString());
+    }
+
+    private static void assertSameParse(String data) throws Exception {
+        CPIMMessage expected = CPIMMessage.parse(data);
+        CPIMMessage actual = CPIMMessage.parse(data.getBytes(CPIMMessage.CHARSET));
+        assertEquals("From attribute not matching.", expected.getFrom(), actual.getFrom());
+        assertArrayEquals("To attribute not matching.", expected.getTo(), actual.getTo());
+        assertEquals("Mime attribute not matching.", expected.getMime(), actual.getMime());
+        assertEquals("Date attribute not matching.", expected.getDate(), actual.getDate());
+        assertEquals("Body not matching.", expected.getBody().toString(), actual.getBody().toString());
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link PaddingSource}.
+ * @author Daniele Ricci
+ */
+public class PaddingSourceTest {
+
+    private static final String ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    @Test
+    public void testRandomString() {
+        Set<Character> seen = new HashSet<>();
+        for (int length : new int[] { 0, 1, 100, 511, 512, 513, 5000 }) {
+            String padding = PaddingSource.randomString(length);
+            assertEquals(length, padding.length());
+            for (int i = 0; i < padding.length(); i++) {
+                assertTrue(ALPHABET.indexOf(padding.charAt(i)) >= 0);
+                seen.add(padding.charAt(i));
+            }
+        }
+        // all characters are used
+        assertEquals(ALPHABET.length(), seen.size());
+        assertNotEquals(PaddingSource.randomString(32), PaddingSource.randomString(32));
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        StringWriter out = new StringWriter();
+        PaddingSource.append(out, 1500);
+        assertEquals(1500, out.toString().length());
+        assertTrue(out.toString().matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void testRandomChars() {
+        CharSequence padding = PaddingSource.randomChars(700);
+        assertEquals(700, padding.length());
+        assertTrue(padding.toString().matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void testPolicies() {
+        assertEquals(0, PaddingPolicy.NONE.getPaddingLength(123));
+        assertEquals(16, PaddingPolicy.fixed(16).getPaddingLength(123));
+
+        PaddingPolicy bucketed = PaddingPolicy.bucketed(256);
+        assertEquals(255, bucketed.getPaddingLength(1));
+        assertEquals(0, bucketed.getPaddingLength(256));
+        assertEquals(156, bucketed.getPaddingLength(1380));
+
+        assertFalse(PaddingPolicy.NONE.isContentDependent());
+        assertFalse(PaddingPolicy.fixed(16).isContentDependent());
+        assertTrue(bucketed.isContentDependent());
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.jxmpp.util.XmppDateTime;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link TimestampCodec}.
+ * @author Daniele Ricci
+ */
+public class TimestampCodecTest {
+
+    private static final long DATE = 1408912505123L;
+
+    @Test
+    public void testFormat() throws Exception {
+        assertEquals("2014-08-24T20:35:05.123+00:00", TimestampCodec.format(DATE));
+        assertEquals("2014-08-24T20:35:05+00:00", TimestampCodec.formatNoMillis(DATE));
+        assertEquals("1970-01-01T00:00:00.000+00:00", TimestampCodec.format(0));
+        assertEquals("1969-12-31T23:59:59.999+00:00", TimestampCodec.format(-1));
+        assertEquals("2000-02-29T12:00:00+00:00", TimestampCodec.formatNoMillis(951825600000L));
+
+        Random rnd = new Random(DATE);
+        for (int i = 0; i < 10000; i++) {
+            // roughly from 1600 to 9999
+            long millis = -11676096000000L + (long) (rnd.nextDouble() * 264000000000000L);
+            assertEquals(XmppDateTime.formatXEP0082Date(new Date(millis)), TimestampCodec.format(millis));
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        String[] dates = {
+            "2014-08-24T20:35:05.123+00:00",
+            "2014-08-24T20:35:05+00:00",
+            "2014-08-24T20:35:05Z",
+            "2014-08-24T20:35:05.1Z",
+            "2014-08-24T20:35:05.123456Z",
+            "2014-08-24T20:35:05-05:30",
+            "2014-08-24T20:35:05.12+02:00",
+            "2000-02-29T00:00:00Z",
+            "2014-08-24",
+        };
+        for (String date : dates) {
+            assertEquals(date, XmppDateTime.parseXEP0082Date(date).getTime(), TimestampCodec.parse(date));
+        }
+
+        Random rnd = new Random(DATE);
+        for (int i = 0; i < 10000; i++) {
+            long millis = -11676096000000L + (long) (rnd.nextDouble() * 264000000000000L);
+            assertEquals(millis, TimestampCodec.parse(TimestampCodec.format(millis)));
+        }
+    }
+
+    @Test
+    public void testConcurrentFormat() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = DATE + t * 60000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            long millis = base + i * 7L;
+                            String expected = XmppDateTime.formatXEP0082Date(new Date(millis));
+                            assertEquals(expected, TimestampCodec.format(millis));
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jivesoftware.smack.packet.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link XMPPArchiveReader}.
+ * @author Daniele Ricci
+ */
+public class XMPPArchiveReaderTest {
+
+    private static String stanza(int id) {
+        return "<xmpp><message xmlns='jabber:client' to='bob@kontalk.net' id='msg" + id + "'>" +
+            "<body>Message \u00e8 " + id + "</body></message></xmpp>";
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        String archive = stanza(1) + "\n" + stanza(2) +
+            "<xmpp></xmpp>" +
+            "\r\n  " + stanza(3) + "\n";
+        InputStream in = new ByteArrayInputStream(archive.getBytes("UTF-8"));
+
+        try (XMPPArchiveReader reader = new XMPPArchiveReader(in)) {
+            for (int i = 1; i <= 3; i++) {
+                Message msg = reader.read();
+                assertNotNull(msg);
+                assertEquals("msg" + i, msg.getStanzaId());
+                assertEquals("Message \u00e8 " + i, msg.getBody());
+            }
+            assertNull(reader.read());
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testReadEmpty() throws Exception {
+        try (XMPPArchiveReader reader = new XMPPArchiveReader(new ByteArrayInputStream(new byte[0]))) {
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testReadFile() throws Exception {
+        final int count = 5000;
+        File file = File.createTempFile("archive", ".xml");
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                for (int i = 0; i < count; i++)
+                    out.write(stanza(i).getBytes("UTF-8"));
+            }
+
+            try (XMPPArchiveReader reader = new XMPPArchiveReader(file)) {
+                int read = 0;
+                Message msg;
+                while ((msg = reader.read()) != null) {
+                    assertEquals("msg" + read, msg.getStanzaId());
+                    read++;
+                }
+                assertEquals(count, read);
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Kontalk client common library
+ * Copyright (C) 2020 Kontalk Devteam <devteam@kontalk.org>
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jivesoftware.smack.packet.Message;
+import org.junit.Assume;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Test case for {@link XMPPParserUtils}.
+ * @author Daniele Ricci
+ */
+public class XMPPParserUtilsTest {
+
+    private static final String BODY = "Hello \u00e8\u4e16\u754c";
+
+    private static String stanza(String id) {
+        return "<xmpp><message xmlns='jabber:client' to='bob@kontalk.net' id='" + id + "'>" +
+            "<body>" + BODY + "</body></message></xmpp>";
+    }
+
+    @Test
+    public void testParseMessageStanza() throws Exception {
+        Message msg = XMPPParserUtils.parseMessageStanza(stanza("test1"));
+        assertEquals("test1", msg.getStanzaId());
+        assertEquals(BODY, msg.getBody());
+
+        // parser is reused by the next call
+        msg = XMPPParserUtils.parseMessageStanza(stanza("test2"));
+        assertEquals("test2", msg.getStanzaId());
+        assertEquals(BODY, msg.getBody());
+    }
+
+    @Test
+    public void testParseMessageStanzaBytes() throws Exception {
+        byte[] data = stanza("test").getBytes("UTF-8");
+        Message msg = XMPPParserUtils.parseMessageStanza(data);
+        assertEquals("test", msg.getStanzaId());
+        assertEquals(BODY, msg.getBody());
+
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        msg = XMPPParserUtils.parseMessageStanza(padded, 5, data.length);
+        assertEquals("test", msg.getStanzaId());
+
+        msg = XMPPParserUtils.parseMessageStanza(new ByteArrayInputStream(data));
+        assertEquals("test", msg.getStanzaId());
+        assertEquals(BODY, msg.getBody());
+    }
+
+    @Test
+    public void testParseMessageStanzaStopsAtMessageEnd() throws Exception {
+        // anything after the message is never parsed
+        String data = "<xmpp><message xmlns='jabber:client' id='test'><body>" + BODY + "</body></message>" +
+            "<broken<<</xmpp>";
+        assertEquals("test", XMPPParserUtils.parseMessageStanza(data).getStanzaId());
+        assertEquals("test", XMPPParserUtils.parseMessageStanza(
+            new ByteArrayInputStream(data.getBytes("UTF-8"))).getStanzaId());
+
+        assertNull(XMPPParserUtils.parseMessageStanza("<xmpp></xmpp>"));
+    }
+
+    @Test
+    public void testAcquireBytes() throws Exception {
+        XmlPullParser parser = XMPPParserUtils.acquirePullParser(stanza("test").getBytes("UTF-8"));
+        try {
+            assertEquals(XmlPullParser.START_TAG, parser.next());
+            assertEquals("xmpp", parser.getName());
+            assertEquals(XmlPullParser.START_TAG, parser.next());
+            assertEquals("jabber:client", parser.getNamespace());
+            parser.next();
+            parser.next();
+            assertEquals(BODY, parser.getText());
+        }
+        finally {
+            XMPPParserUtils.releasePullParser(parser);
+        }
+    }
+
+    @Test
+    public void testAcquireNested() throws Exception {
+        XmlPullParser outer = XMPPParserUtils.acquirePullParser(stanza("outer").getBytes("UTF-8"));
+        try {
+            outer.next();
+            // a nested parse must not disturb the outer parser
+            XmlPullParser inner = XMPPParserUtils.acquirePullParser(stanza("inner").getBytes("UTF-8"));
+            assertNotSame(outer, inner);
+            XMPPParserUtils.releasePullParser(inner);
+            assertEquals("inner", XMPPParserUtils.parseMessageStanza(stanza("inner")).getStanzaId());
+
+            outer.next();
+            assertEquals("outer", outer.getAttributeValue(null, "id"));
+        }
+        finally {
+            XMPPParserUtils.releasePullParser(outer);
+        }
+
+        XmlPullParser again = XMPPParserUtils.acquirePullParser(stanza("again").getBytes("UTF-8"));
+        assertSame(outer, again);
+        XMPPParserUtils.releasePullParser(again);
+    }
+
+    @Test
+    public void testLargeInputNotRetained() throws Exception {
+        XmlPullParser small = XMPPParserUtils.acquirePullParser(new StringReader(stanza("small")));
+        consume(small);
+        XMPPParserUtils.releasePullParser(small);
+
+        XmlPullParser again = XMPPParserUtils.acquirePullParser(new StringReader(stanza("again")));
+        assertSame(small, again);
+        consume(again);
+        XMPPParserUtils.releasePullParser(again);
+
+        // its buffers grow, so the parser is dropped afterwards
+        char[] text = new char[XmlPullParserPool.MAX_RETAINED_INPUT];
+        Arrays.fill(text, 'a');
+        XmlPullParser large = XMPPParserUtils.acquirePullParser(new StringReader(
+            "<xmpp><message xmlns='jabber:client'><body>" + new String(text) + "</body></message></xmpp>"));
+        assertSame(small, large);
+        consume(large);
+        XMPPParserUtils.releasePullParser(large);
+
+        XmlPullParser next = XMPPParserUtils.acquirePullParser(new StringReader(stanza("next")));
+        assertNotSame(large, next);
+        consume(next);
+        XMPPParserUtils.releasePullParser(next);
+    }
+
+    private static void consume(XmlPullParser parser) throws Exception {
+        while (parser.next() != XmlPullParser.END_DOCUMENT) {
+            // read everything
+        }
+    }
+
+    @Test
+    public void testConcurrentParse() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String prefix = "thread" + t + "-";
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            Message msg = XMPPParserUtils.parseMessageStanza(stanza(prefix + i));
+                            assertEquals(prefix + i, msg.getStanzaId());
+                            assertEquals(BODY, msg.getBody());
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Method startVirtualThread;
+        try {
+            startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        }
+        catch (NoSuchMethodException e) {
+            Assume.assumeNoException("virtual threads not available", e);
+            return;
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[200];
+        for (int t = 0; t < threads.length; t++) {
+            final String prefix = "virtual" + t + "-";
+            threads[t] = (Thread) startVirtualThread.invoke(null, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            Message msg = XMPPParserUtils.parseMessageStanza(stanza(prefix + i));
+                            assertEquals(prefix + i, msg.getStanzaId());
+                            assertEquals(BODY, msg.getBody());
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+}